@@ -0,0 +1,103 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.benchmarks;
+
+import com.serkprojects.enhancedtrade.text.CurrencyFormatter;
+import com.serkprojects.enhancedtrade.text.Template;
+import net.milkbowl.vault.economy.Economy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the currency button lore against the regex based formatCurrencyVariables it replaced
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurrencyFormatBenchmark {
+    private Economy economy = null;
+    private CurrencyFormatter currencyFormatter = null;
+
+    private List<String> lore = null;
+    private Template[] loreTemplates = null;
+
+    @Setup
+    public void setup() {
+        economy = Fixtures.newEconomy();
+        currencyFormatter = new CurrencyFormatter(economy);
+
+        lore = Arrays.asList("Click to add {currency-10} to the trade.", "Shift Click to add {currency-100} to the trade");
+        loreTemplates = new Template[lore.size()];
+
+        for(int i = 0; i < loreTemplates.length; i++) {
+            loreTemplates[i] = Template.compile(lore.get(i));
+        }
+    }
+
+    @Benchmark
+    public List<String> compiledTemplates() {
+        List<String> formatted = new ArrayList<String>(loreTemplates.length);
+
+        for(Template template: loreTemplates) {
+            formatted.add(template.render(currencyFormatter));
+        }
+
+        return formatted;
+    }
+
+    @Benchmark
+    public List<String> legacyFormatCurrencyVariables() {
+        List<String> formattedVariables = new ArrayList<String>();
+
+        for(String entry: lore) {
+            String[] splitString = entry.split(" +");
+
+            for(String splitStringEntry: splitString) {
+                if (splitStringEntry.startsWith("{currency")) {
+                    entry = entry.replace(splitStringEntry, economy.format(Integer.parseInt(splitStringEntry.replaceAll("[^0-9]", ""))));
+                }
+            }
+
+            formattedVariables.add(entry);
+        }
+
+        return formattedVariables;
+    }
+}
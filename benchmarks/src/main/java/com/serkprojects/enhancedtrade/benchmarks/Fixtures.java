@@ -0,0 +1,220 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.benchmarks;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.menu.TradeLayout;
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.menu.TradeState;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.trade.TradeRegistry;
+import com.serkprojects.enhancedtrade.trade.ViewerRegistry;
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Lightweight stand-ins for the Bukkit and Vault objects the benchmarks need.
+ * A real plugin instance can not be created outside of a server, so the plugin and trade menus are allocated without
+ * running their constructors and only the state the benchmarked code reads is filled in.
+ */
+final class Fixtures {
+    private static final Unsafe UNSAFE = findUnsafe();
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns a trade menu with only its participants set
+     */
+    static TradeMenu newTradeMenu(UUID traderUUID, UUID tradeeUUID) {
+        try {
+            TradeMenu tradeMenu = (TradeMenu) UNSAFE.allocateInstance(TradeMenu.class);
+            tradeMenu.setTraderUUID(traderUUID);
+            tradeMenu.setTradeeUUID(tradeeUUID);
+
+            return tradeMenu;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns a trade menu laid out and open for trading, as accepting a request leaves it
+     */
+    static TradeMenu newOpenTradeMenu(UUID traderUUID, UUID tradeeUUID, TradeLayout layout) {
+        TradeMenu tradeMenu = newTradeMenu(traderUUID, tradeeUUID);
+        setField(TradeMenu.class, tradeMenu, "layout", layout);
+        setField(TradeMenu.class, tradeMenu, "state", TradeState.OPEN);
+
+        return tradeMenu;
+    }
+
+    /**
+     * Returns a plugin with only the registries and metrics the menu listener reads
+     */
+    static EnhancedTrade newPlugin(TradeRegistry tradeRegistry, ViewerRegistry viewerRegistry, TradeMetrics tradeMetrics) {
+        try {
+            EnhancedTrade plugin = (EnhancedTrade) UNSAFE.allocateInstance(EnhancedTrade.class);
+            setField(EnhancedTrade.class, plugin, "tradeRegistry", tradeRegistry);
+            setField(EnhancedTrade.class, plugin, "viewerRegistry", viewerRegistry);
+            setField(EnhancedTrade.class, plugin, "tradeMetrics", tradeMetrics);
+
+            return plugin;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns an online player stand-in with an empty cursor
+     */
+    static Player newPlayer(final UUID UUID) {
+        return (Player) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] {Player.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getUniqueId":
+                        return UUID;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a chest inventory stand-in with a holder and title
+     */
+    static Inventory newInventory(final InventoryHolder holder, final String title) {
+        return (Inventory) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] {Inventory.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getHolder":
+                        return holder;
+                    case "getTitle":
+                    case "getName":
+                        return title;
+                    case "getType":
+                        return InventoryType.CHEST;
+                    case "getSize":
+                        return 45;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a stand-in for the storage behind an inventory from Bukkit.createInventory, with the same fields as CraftBukkit's
+     */
+    static Object newInventoryStorage(InventoryHolder holder, String title, int size) {
+        return new InventoryStorage(holder, title, size);
+    }
+
+    /**
+     * Returns an economy stand-in that formats amounts like most dollar based economies
+     */
+    static Economy newEconomy() {
+        return (Economy) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] {Economy.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "format":
+                        return String.format("$%,.2f", (Double) args[0]);
+                    case "isEnabled":
+                        return true;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    private static void setField(Class<?> type, Object target, String name, Object value) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Could not set " + name + " on " + type.getSimpleName(), ex);
+        }
+    }
+
+    private static Unsafe findUnsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Mirrors CraftInventoryCustom and the MinecraftInventory it wraps
+     */
+    private static final class InventoryStorage {
+        private final Object[] items;
+        private final List<HumanEntity> viewers;
+        private final String title;
+        private final InventoryType type;
+        private final InventoryHolder owner;
+        private int maxStack = 64;
+
+        private InventoryStorage(InventoryHolder owner, String title, int size) {
+            this.items = new Object[size];
+            this.viewers = new ArrayList<HumanEntity>();
+            this.title = title;
+            this.type = InventoryType.CHEST;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.benchmarks;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.listeners.MenuListener;
+import com.serkprojects.enhancedtrade.menu.SlotRole;
+import com.serkprojects.enhancedtrade.menu.TradeLayout;
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.trade.TradeRegistry;
+import com.serkprojects.enhancedtrade.trade.ViewerRegistry;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MenuListener.inventoryClick as the server calls it, with 100 open trades in the registries.
+ * An unrelated click is turned away before it is known to be for a trade, a trade click is the trader moving an item
+ * in their own slots and is checked all the way through. The legacy benchmarks run the title check the handler used
+ * to start with on every click.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MenuClickBenchmark {
+    private static final String CONFIGURED_NAME = "&bTrade Menu";
+
+    private MenuListener menuListener = null;
+
+    private Inventory unrelatedChest = null;
+    private Inventory tradeInventory = null;
+
+    private InventoryClickEvent unrelatedClickEvent = null;
+    private InventoryClickEvent tradeClickEvent = null;
+
+    @Setup
+    public void setup() {
+        TradeLayout layout = new TradeLayout(TradeLayout.DEFAULT_ROWS);
+        TradeRegistry tradeRegistry = new TradeRegistry();
+        ViewerRegistry viewerRegistry = new ViewerRegistry();
+        EnhancedTrade plugin = Fixtures.newPlugin(tradeRegistry, viewerRegistry, new TradeMetrics());
+
+        for(int i = 0; i < 100; i++) {
+            TradeMenu openTrade = Fixtures.newOpenTradeMenu(UUID.randomUUID(), UUID.randomUUID(), layout);
+            tradeRegistry.register(openTrade);
+            viewerRegistry.open(openTrade.getTraderUUID(), openTrade);
+            viewerRegistry.open(openTrade.getTradeeUUID(), openTrade);
+        }
+
+        TradeMenu tradeMenu = Fixtures.newOpenTradeMenu(UUID.randomUUID(), UUID.randomUUID(), layout);
+        tradeRegistry.register(tradeMenu);
+        viewerRegistry.open(tradeMenu.getTraderUUID(), tradeMenu);
+
+        menuListener = new MenuListener(plugin);
+
+        unrelatedChest = Fixtures.newInventory(null, "Chest");
+        tradeInventory = Fixtures.newInventory(tradeMenu, ChatColor.translateAlternateColorCodes('&', CONFIGURED_NAME));
+
+        unrelatedClickEvent = newClickEvent(Fixtures.newPlayer(UUID.randomUUID()), unrelatedChest, 0);
+        tradeClickEvent = newClickEvent(Fixtures.newPlayer(tradeMenu.getTraderUUID()), tradeInventory, findSlot(layout, SlotRole.TRADER));
+    }
+
+    @Benchmark
+    public boolean unrelatedClick() {
+        menuListener.inventoryClick(unrelatedClickEvent);
+        return unrelatedClickEvent.isCancelled();
+    }
+
+    @Benchmark
+    public boolean tradeClick() {
+        menuListener.inventoryClick(tradeClickEvent);
+        return tradeClickEvent.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyUnrelatedClick() {
+        return legacyIsTradeInventory(unrelatedChest);
+    }
+
+    @Benchmark
+    public boolean legacyTradeClick() {
+        return legacyIsTradeInventory(tradeInventory);
+    }
+
+    private static InventoryClickEvent newClickEvent(final HumanEntity player, final Inventory inventory, int slot) {
+        InventoryView view = new InventoryView() {
+            @Override
+            public Inventory getTopInventory() {
+                return inventory;
+            }
+
+            @Override
+            public Inventory getBottomInventory() {
+                return null;
+            }
+
+            @Override
+            public HumanEntity getPlayer() {
+                return player;
+            }
+
+            @Override
+            public InventoryType getType() {
+                return InventoryType.CHEST;
+            }
+        };
+
+        return new InventoryClickEvent(view, InventoryType.SlotType.CONTAINER, slot, ClickType.LEFT, InventoryAction.PICKUP_ALL);
+    }
+
+    private static int findSlot(TradeLayout layout, SlotRole slotRole) {
+        for(int i = 0; i < layout.getSize(); i++) {
+            if(layout.getRole(i) == slotRole) {return i;}
+        }
+
+        throw new IllegalStateException("The layout has no " + slotRole + " slot");
+    }
+
+    private static boolean legacyIsTradeInventory(Inventory inventory) {
+        if(inventory == null || inventory.getType() != InventoryType.CHEST) {return false;}
+        if(inventory.getTitle() == null || inventory.getTitle().trim().equalsIgnoreCase("")) {return false;}
+
+        String menuTitle = ChatColor.translateAlternateColorCodes('&', CONFIGURED_NAME);
+
+        return inventory.getTitle().equalsIgnoreCase(menuTitle);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.benchmarks;
+
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.trade.TradeRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap used by one pending trade request, now a TradeRequest record, against the TradeMenu and 45 slot inventory
+ * every request used to allocate before it was accepted.
+ * Run with -prof gc and compare gc.alloc.rate.norm, the bytes allocated per request. The stand-in menu skips the
+ * arrays its constructor allocates, so the old cost is understated rather than overstated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PendingRequestFootprintBenchmark {
+    private static final int LEGACY_INVENTORY_SIZE = 45;
+
+    private UUID traderUUID = null;
+    private UUID tradeeUUID = null;
+
+    @Setup
+    public void setup() {
+        // Players already exist, so their UUIDs and names are not part of a request's cost
+        traderUUID = UUID.randomUUID();
+        tradeeUUID = UUID.randomUUID();
+    }
+
+    @Benchmark
+    public TradeRequest pendingRequest() {
+        return new TradeRequest(traderUUID, "Trader", tradeeUUID, "Tradee");
+    }
+
+    @Benchmark
+    public void legacyPendingRequest(Blackhole blackhole) {
+        TradeMenu tradeMenu = Fixtures.newTradeMenu(traderUUID, tradeeUUID);
+
+        blackhole.consume(tradeMenu);
+        blackhole.consume(Fixtures.newInventoryStorage(tradeMenu, "Trade Menu", LEGACY_INVENTORY_SIZE));
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.benchmarks;
+
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.trade.TradeRegistry;
+import gnu.trove.set.hash.THashSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding a player's trade, as done by EnhancedTrade.isTrading and every listener and command, against the linear scan it replaced
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeLookupBenchmark {
+    @Param({"10", "1000", "10000"})
+    private int activeTrades;
+
+    private TradeRegistry tradeRegistry = null;
+    private THashSet<TradeMenu> legacyTrades = null;
+
+    private UUID[] participants = null;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        tradeRegistry = new TradeRegistry();
+        legacyTrades = new THashSet<TradeMenu>();
+        participants = new UUID[activeTrades];
+
+        for(int i = 0; i < activeTrades; i++) {
+            UUID traderUUID = UUID.randomUUID();
+            TradeMenu tradeMenu = Fixtures.newTradeMenu(traderUUID, UUID.randomUUID());
+
+            tradeRegistry.register(tradeMenu);
+            legacyTrades.add(tradeMenu);
+            participants[i] = traderUUID;
+        }
+    }
+
+    private UUID nextParticipant() {
+        UUID UUID = participants[next];
+        next = (next + 1) % participants.length;
+        return UUID;
+    }
+
+    @Benchmark
+    public boolean isTrading() {
+        return tradeRegistry.isTrading(nextParticipant());
+    }
+
+    @Benchmark
+    public TradeMenu getTrade() {
+        return tradeRegistry.getTrade(nextParticipant());
+    }
+
+    @Benchmark
+    public boolean legacyIsTrading() {
+        UUID UUID = nextParticipant();
+
+        // getActiveTrades() copied the set on every call before scanning it
+        for(TradeMenu tradeMenu: new THashSet<TradeMenu>(legacyTrades)) {
+            if(UUID.equals(tradeMenu.getTraderUUID()) || UUID.equals(tradeMenu.getTradeeUUID())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
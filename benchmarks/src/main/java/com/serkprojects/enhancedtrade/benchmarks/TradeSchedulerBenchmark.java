@@ -0,0 +1,155 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.benchmarks;
+
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.tasks.TimingWheelTradeScheduler;
+import com.serkprojects.enhancedtrade.trade.TradeRequest;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One scheduler tick with every trade request waiting to expire, against one run of each of the TradeCancelTask and
+ * TradeTickDownTask loops it replaced. The legacy loops are ported as they were, with every trade counted in both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeSchedulerBenchmark {
+    // Far enough out that no request expires during a benchmark, expiring needs a running plugin
+    private static final long TIMEOUT_TICKS = Long.MAX_VALUE / 4;
+
+    @Param({"10", "1000", "10000"})
+    private int activeTrades;
+
+    private TradeMenu[] tradeMenus = null;
+    private TradeRequest[] tradeRequests = null;
+    private TimingWheelTradeScheduler tradeScheduler = null;
+
+    // TradeCancelTask's counters and the config it read the cancel time from on every entry
+    private THashMap<TradeMenu, Integer> tradesCounterMap = null;
+    private YamlConfiguration legacyConfig = null;
+
+    // TradeTickDownTask's counters and the set it never cleared
+    private THashMap<TradeMenu, Integer> tradeInventoriesMap = null;
+    private THashSet<TradeMenu> inventoriesToRemove = null;
+
+    private int next = 0;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        tradeMenus = new TradeMenu[activeTrades];
+        tradeRequests = new TradeRequest[activeTrades];
+        tradeScheduler = new TimingWheelTradeScheduler(null, new TradeMetrics());
+        tradesCounterMap = new THashMap<TradeMenu, Integer>();
+        tradeInventoriesMap = new THashMap<TradeMenu, Integer>();
+        inventoriesToRemove = new THashSet<TradeMenu>();
+
+        // Like the timeout above, no trade reaches its cancel time or finishes counting down during an iteration
+        legacyConfig = new YamlConfiguration();
+        legacyConfig.set("settings.trade.cancelTime", Integer.MAX_VALUE);
+
+        for(int i = 0; i < activeTrades; i++) {
+            tradeMenus[i] = Fixtures.newTradeMenu(UUID.randomUUID(), UUID.randomUUID());
+            tradeRequests[i] = new TradeRequest(tradeMenus[i].getTraderUUID(), "trader", tradeMenus[i].getTradeeUUID(), "tradee");
+            tradeScheduler.scheduleRequestExpiry(tradeRequests[i], TIMEOUT_TICKS);
+            tradesCounterMap.put(tradeMenus[i], 0);
+            tradeInventoriesMap.put(tradeMenus[i], Integer.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public void timingWheelTick() {
+        tradeScheduler.run();
+    }
+
+    @Benchmark
+    public void timingWheelReschedule() {
+        TradeRequest tradeRequest = tradeRequests[next];
+        next = (next + 1) % tradeRequests.length;
+
+        tradeScheduler.scheduleRequestExpiry(tradeRequest, TIMEOUT_TICKS);
+    }
+
+    @Benchmark
+    public int legacyCancelTaskRun() {
+        THashSet<TradeMenu> menusToCancel = new THashSet<TradeMenu>();
+
+        for(TradeMenu tradeMenu: tradesCounterMap.keySet()) {
+            if(tradesCounterMap.get(tradeMenu) >= legacyConfig.getInt("settings.trade.cancelTime")) {
+                menusToCancel.add(tradeMenu);
+            } else {
+                tradesCounterMap.put(tradeMenu, tradesCounterMap.get(tradeMenu) + 1);
+            }
+        }
+
+        return menusToCancel.size();
+    }
+
+    @Benchmark
+    public int legacyTickDownTaskRun() {
+        if(tradeInventoriesMap.size() == 0) {return 0;}
+
+        int amounts = 0;
+
+        for(TradeMenu tradeMenu : tradeInventoriesMap.keySet()) {
+            if(tradeInventoriesMap.get(tradeMenu) > 0) {
+                tradeInventoriesMap.put(tradeMenu, tradeInventoriesMap.get(tradeMenu) - 1);
+
+                // Stands in for setAllMenuItemAmounts and the viewer sounds, which need a running server
+                amounts += tradeInventoriesMap.get(tradeMenu);
+            }
+
+            if(tradeInventoriesMap.get(tradeMenu) <= 1) {
+                inventoriesToRemove.add(tradeMenu);
+            }
+        }
+
+        for(TradeMenu tradeMenu: inventoriesToRemove) {
+            tradeInventoriesMap.remove(tradeMenu);
+        }
+
+        return amounts;
+    }
+}
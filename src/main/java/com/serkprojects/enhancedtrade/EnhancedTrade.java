@@ -23,25 +23,65 @@
 
 package com.serkprojects.enhancedtrade;
 
+import com.serkprojects.enhancedtrade.audit.AuditLog;
+import com.serkprojects.enhancedtrade.commands.StatsCmd;
 import com.serkprojects.enhancedtrade.commands.TradeCmd;
+import com.serkprojects.enhancedtrade.economy.EconomyPipeline;
+import com.serkprojects.enhancedtrade.history.TradeHistory;
+import com.serkprojects.enhancedtrade.journal.TradeJournal;
+import com.serkprojects.enhancedtrade.listeners.ItemListener;
 import com.serkprojects.enhancedtrade.listeners.MenuListener;
 import com.serkprojects.enhancedtrade.listeners.PlayerListener;
+import com.serkprojects.enhancedtrade.menu.MenuItemTemplates;
 import com.serkprojects.enhancedtrade.menu.TradeMenu;
-import com.serkprojects.enhancedtrade.tasks.TradeCancelTask;
-import com.serkprojects.enhancedtrade.tasks.TradeTickDownTask;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.settings.TradeSettings;
+import com.serkprojects.enhancedtrade.tasks.MenuUpdateBatcher;
+import com.serkprojects.enhancedtrade.tasks.MetricsDumpTask;
+import com.serkprojects.enhancedtrade.tasks.TimingWheelTradeScheduler;
+import com.serkprojects.enhancedtrade.tasks.TradeScheduler;
+import com.serkprojects.enhancedtrade.text.CurrencyFormatter;
+import com.serkprojects.enhancedtrade.text.MessageCatalogue;
+import com.serkprojects.enhancedtrade.trade.ItemTransfer;
+import com.serkprojects.enhancedtrade.trade.ProtectedDropRegistry;
+import com.serkprojects.enhancedtrade.trade.RequestInbox;
+import com.serkprojects.enhancedtrade.trade.RequestRateLimiter;
+import com.serkprojects.enhancedtrade.trade.TradeRegistry;
+import com.serkprojects.enhancedtrade.trade.ViewerRegistry;
 import com.serkprojects.serkcore.plugin.JavaPlugin;
-import gnu.trove.set.hash.THashSet;
 import net.milkbowl.vault.economy.Economy;
+import org.bukkit.command.PluginCommand;
 import org.bukkit.plugin.RegisteredServiceProvider;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.UUID;
+import java.util.logging.Level;
 
 public class EnhancedTrade extends JavaPlugin {
+    // Swapped whole on reload, so readers on any thread see either the old or the new snapshot
+    private volatile TradeSettings tradeSettings = null;
+
     private Economy economy = null;
+    private EconomyPipeline economyPipeline = null;
+    private TradeJournal tradeJournal = null;
+    private TradeHistory tradeHistory = null;
+    private AuditLog auditLog = null;
+    private CurrencyFormatter currencyFormatter = null;
+    private MessageCatalogue messageCatalogue = null;
+    private MenuItemTemplates menuItemTemplates = null;
 
-    private THashSet<TradeMenu> activeTrades = null;
-    private TradeCancelTask tradeCancelTask = null;
-    private TradeTickDownTask tradeTickDownTask = null;
+    private TradeRegistry tradeRegistry = null;
+    private ViewerRegistry viewerRegistry = null;
+    private RequestInbox requestInbox = null;
+    private RequestRateLimiter requestRateLimiter = null;
+    private ItemTransfer itemTransfer = null;
+    private ProtectedDropRegistry protectedDrops = null;
+    private TradeScheduler tradeScheduler = null;
+    private MenuUpdateBatcher menuUpdateBatcher = null;
+    private TradeMetrics tradeMetrics = null;
+    private MetricsDumpTask metricsDumpTask = null;
 
     @Override
     public boolean shouldSaveData() {
@@ -55,33 +95,125 @@ public class EnhancedTrade extends JavaPlugin {
 
     @Override
     public String getPermissionPrefix() {
-        return getConfig().getString("settings.permissionPrefix");
+        // The master command can be set up before the settings are loaded
+        if(tradeSettings == null) {
+            return getConfig().getString("settings.permissionPrefix");
+        }
+
+        return tradeSettings.getPermissionPrefix();
     }
 
     @Override
     public void onReload() {
-        for(final TradeMenu tradeMenu: getActiveTrades()) {
+        // Cancelling removes trades from the registry, so iterate over a copy
+        for(final TradeMenu tradeMenu: new ArrayList<TradeMenu>(tradeRegistry.getTrades())) {
             tradeMenu.cancelTrade();
         }
+
+        try {
+            tradeSettings = TradeSettings.load(getConfig());
+        } catch (IllegalArgumentException ex) {
+            getLogger().severe(ex.getMessage());
+            getLogger().severe("Keeping the previous settings until the config is fixed");
+        }
+
+        currencyFormatter = new CurrencyFormatter(economy);
+        messageCatalogue = new MessageCatalogue(this);
+        menuItemTemplates = new MenuItemTemplates(this, tradeSettings);
+        scheduleMetricsDump();
     }
 
     public void onEnable() {
         super.onEnable();
 
-        activeTrades = new THashSet<TradeMenu>();
+        try {
+            tradeSettings = TradeSettings.load(getConfig());
+        } catch (IllegalArgumentException ex) {
+            getLogger().severe(ex.getMessage());
+            getLogger().severe("Using the default values for only those settings until the config is fixed");
+            tradeSettings = TradeSettings.loadReplacingInvalid(getConfig());
+        }
 
-        setupEconomy();
+        tradeMetrics = new TradeMetrics();
+        tradeRegistry = new TradeRegistry();
+        viewerRegistry = new ViewerRegistry();
+        requestInbox = new RequestInbox(this);
+        requestRateLimiter = new RequestRateLimiter();
+        itemTransfer = new ItemTransfer(this);
+        protectedDrops = new ProtectedDropRegistry();
+        protectedDrops.runTaskTimer(this, 20, 20);
+
+        boolean hasEconomy = setupEconomy();
+
+        // Replay the journal before anything can trade so interrupted trades are refunded first
+        tradeJournal = new TradeJournal(this, new File(getDataFolder(), "journal.dat"));
+
+        try {
+            tradeJournal.open();
+        } catch (IOException ex) {
+            getLogger().log(Level.SEVERE, "Could not open the trade journal, trades will not be recoverable after a crash", ex);
+            tradeJournal = null;
+        }
+
+        tradeHistory = new TradeHistory(this, new File(getDataFolder(), "history"));
+
+        try {
+            tradeHistory.open();
+        } catch (IOException ex) {
+            getLogger().log(Level.SEVERE, "Could not open the trade history, settled trades will not be recorded", ex);
+            tradeHistory = null;
+        }
+
+        if(tradeSettings.isAuditEnabled()) {
+            auditLog = new AuditLog(this, new File(getDataFolder(), "audit"));
+
+            try {
+                auditLog.open();
+            } catch (IOException ex) {
+                getLogger().log(Level.SEVERE, "Could not open the audit log, trade actions will not be audited", ex);
+                auditLog = null;
+            }
+        }
+
+        if(hasEconomy) {
+            economyPipeline = new EconomyPipeline(this, economy);
+            economyPipeline.setTradeJournal(tradeJournal);
+            economyPipeline.start();
+        }
+
+        currencyFormatter = new CurrencyFormatter(economy);
+        messageCatalogue = new MessageCatalogue(this);
+        menuItemTemplates = new MenuItemTemplates(this, tradeSettings);
 
         getCommand("trade").setExecutor(new TradeCmd(this));
 
+        PluginCommand masterCommand = getCommand("enhancedtrade");
+        masterCommand.setExecutor(new StatsCmd(this, masterCommand.getExecutor()));
+
         getServer().getPluginManager().registerEvents(new MenuListener(this), this);
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
+        getServer().getPluginManager().registerEvents(new ItemListener(this), this);
+
+        setTradeScheduler(new TimingWheelTradeScheduler(this, tradeMetrics));
+
+        menuUpdateBatcher = new MenuUpdateBatcher(tradeMetrics);
+        menuUpdateBatcher.runTaskTimer(this, 1, 1);
+
+        scheduleMetricsDump();
+    }
+
+    private void scheduleMetricsDump() {
+        if(metricsDumpTask != null) {
+            metricsDumpTask.cancel();
+            metricsDumpTask = null;
+        }
 
-        tradeCancelTask = new TradeCancelTask(this);
-        tradeCancelTask.runTaskTimer(this, 0, 1200);
+        long metricsDumpTicks = tradeSettings.getMetricsDumpTicks();
 
-        tradeTickDownTask = new TradeTickDownTask(this);
-        tradeTickDownTask.runTaskTimer(this, 0, 20);
+        if(metricsDumpTicks > 0) {
+            metricsDumpTask = new MetricsDumpTask(this, new File(getDataFolder(), "metrics.prom"));
+            metricsDumpTask.runTaskTimer(this, metricsDumpTicks, metricsDumpTicks);
+        }
     }
 
     private boolean setupEconomy() {
@@ -93,6 +225,14 @@ public class EnhancedTrade extends JavaPlugin {
         return (economy != null);
     }
 
+    /**
+     * Returns the current settings snapshot
+     * @return the current settings snapshot
+     */
+    public TradeSettings getTradeSettings() {
+        return tradeSettings;
+    }
+
     /**
      * Returns the economy instance
      * @return the economy instance
@@ -102,71 +242,192 @@ public class EnhancedTrade extends JavaPlugin {
     }
 
     /**
-     * Returns the read-only set of currently active trades
-     * @return the read-only set of currently active trades
+     * Returns the pipeline used to settle trade money against the economy
+     * @return the pipeline used to settle trade money against the economy or null if there is no economy
      */
-    public THashSet<TradeMenu> getActiveTrades() {
-        return new THashSet<>(activeTrades);
+    public EconomyPipeline getEconomyPipeline() {
+        return economyPipeline;
     }
 
     /**
-     * Returns the trade cancel task
-     * @return the trade cancel task
+     * Returns the journal trades are recorded in
+     * @return the journal trades are recorded in or null if it could not be opened
      */
-    public TradeCancelTask getTradeCancelTask() {
-        return tradeCancelTask;
+    public TradeJournal getTradeJournal() {
+        return tradeJournal;
     }
 
     /**
-     * Returns the trade tick down task
-     * @return the trade tick down task
+     * Returns the history settled trades are recorded in
+     * @return the history settled trades are recorded in or null if it could not be opened
      */
-    public TradeTickDownTask getTradeTickDownTask() {
-        return tradeTickDownTask;
+    public TradeHistory getTradeHistory() {
+        return tradeHistory;
     }
 
     /**
-     * Adds an active trade
-     * @param tradeMenu the trade menu instance
+     * Returns the audit log trade actions are written to
+     * @return the audit log trade actions are written to or null if it is disabled or could not be opened
      */
-    public void addActiveTrade(TradeMenu tradeMenu) {
-        if(tradeMenu.getTraderUUID() == null) {return;}
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
 
-        activeTrades.add(tradeMenu);
+    /**
+     * Returns the cached currency formatter for the current economy
+     * @return the cached currency formatter for the current economy
+     */
+    public CurrencyFormatter getCurrencyFormatter() {
+        return currencyFormatter;
     }
 
     /**
-     * Removes am active trade
-     * @param tradeMenu the trade menu instance
+     * Returns the item transfer used to hand traded items out
+     * @return the item transfer used to hand traded items out
      */
-    public void removeActiveTrade(TradeMenu tradeMenu) {
-        activeTrades.remove(tradeMenu);
+    public ItemTransfer getItemTransfer() {
+        return itemTransfer;
+    }
+
+    /**
+     * Returns the registry of dropped trade items only their owners may pick up
+     * @return the registry of dropped trade items only their owners may pick up
+     */
+    public ProtectedDropRegistry getProtectedDrops() {
+        return protectedDrops;
+    }
+
+    /**
+     * Returns the compiled language messages
+     * @return the compiled language messages
+     */
+    public MessageCatalogue getMessageCatalogue() {
+        return messageCatalogue;
+    }
+
+    /**
+     * Returns the compiled menu item templates
+     * @return the compiled menu item templates
+     */
+    public MenuItemTemplates getMenuItemTemplates() {
+        return menuItemTemplates;
+    }
+
+    /**
+     * Returns the registry of currently active trades
+     * @return the registry of currently active trades
+     */
+    public TradeRegistry getTradeRegistry() {
+        return tradeRegistry;
+    }
+
+    /**
+     * Returns the registry of players viewing a trade menu
+     * @return the registry of players viewing a trade menu
+     */
+    public ViewerRegistry getViewerRegistry() {
+        return viewerRegistry;
+    }
+
+    /**
+     * Returns the inbox of trade requests waiting to be accepted
+     * @return the inbox of trade requests waiting to be accepted
+     */
+    public RequestInbox getRequestInbox() {
+        return requestInbox;
+    }
+
+    /**
+     * Returns the rate limiter for trade requests
+     * @return the rate limiter for trade requests
+     */
+    public RequestRateLimiter getRequestRateLimiter() {
+        return requestRateLimiter;
+    }
+
+    /**
+     * Returns the scheduler used for trade timeouts and countdowns
+     * @return the scheduler used for trade timeouts and countdowns
+     */
+    public TradeScheduler getTradeScheduler() {
+        return tradeScheduler;
+    }
+
+    /**
+     * Returns the batcher used to flush trade menu changes
+     * @return the batcher used to flush trade menu changes
+     */
+    public MenuUpdateBatcher getMenuUpdateBatcher() {
+        return menuUpdateBatcher;
+    }
+
+    /**
+     * Returns the metrics recorded for trades and their handlers
+     * @return the metrics recorded for trades and their handlers
+     */
+    public TradeMetrics getTradeMetrics() {
+        return tradeMetrics;
+    }
+
+    /**
+     * Replaces the scheduler used for trade timeouts and countdowns, stopping the previous one
+     * @param tradeScheduler the scheduler to start using
+     */
+    public void setTradeScheduler(TradeScheduler tradeScheduler) {
+        if(this.tradeScheduler != null) {
+            this.tradeScheduler.stop();
+        }
+
+        this.tradeScheduler = tradeScheduler;
+        tradeScheduler.start();
     }
 
     /**
      * Returns if a UUID is involved in a trade
      * @param UUID the UUID to check
+     * @param onlyAccepted if only accepted trades should be considered, otherwise waiting requests count as well
      * @return if a UUID is involved in a trade
      */
     public boolean isTrading(UUID UUID, boolean onlyAccepted) {
-        for(TradeMenu tradeMenu: activeTrades) {
-            if(UUID.equals(tradeMenu.getTraderUUID())|| UUID.equals(tradeMenu.getTradeeUUID())) {
-                if(onlyAccepted) {
-                    if(tradeMenu.isAwaitingAcceptance()) {
-                        return false;
-                    } else {
-                        return true;
-                    }
-                }
-
-                return true;
-            }
-        }
+        if(tradeRegistry.isTrading(UUID)) {return true;}
 
-        return false;
+        return !onlyAccepted && UUID != null && requestInbox.hasRequests(UUID);
     }
 
     public void onDisable() {
+        // Journal the item changes staged in the last tick before anything settles
+        if(menuUpdateBatcher != null) {
+            menuUpdateBatcher.run();
+        }
+
+        // Open trades are cancelled the normal way, refunding escrow and returning items, before the pipeline and journal stop.
+        // Cancelling removes trades from the registry, so iterate over a copy
+        if(tradeRegistry != null) {
+            for(TradeMenu tradeMenu: new ArrayList<TradeMenu>(tradeRegistry.getTrades())) {
+                tradeMenu.cancelTrade();
+            }
+        }
+
+        if(tradeScheduler != null) {
+            tradeScheduler.stop();
+        }
+
+        if(economyPipeline != null) {
+            economyPipeline.stop();
+        }
+
+        if(tradeJournal != null) {
+            tradeJournal.close();
+        }
+
+        if(tradeHistory != null) {
+            tradeHistory.close();
+        }
+
+        if(auditLog != null) {
+            auditLog.close();
+        }
+
         super.onDisable();
     }
 }
@@ -0,0 +1,372 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.audit;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.journal.TradeJournal;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.settings.TradeSettings;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Line based audit trail of money clicks, readiness toggles, cancellations and completions.
+ * The main thread is the only producer and writes events into a preallocated single-producer/single-consumer ring
+ * without locking or allocating, a background thread is the only consumer and appends them to audit.log in batches.
+ * The log is rotated by size and age and rotated files are gzipped. When the ring is full because the disk has
+ * stalled, events are dropped and counted instead of waiting.
+ */
+public class AuditLog {
+    public enum Event {
+        MONEY_ADD,
+        MONEY_REMOVE,
+        MONEY_REFUSED,
+        READY,
+        UNREADY,
+        CANCEL,
+        COMPLETE
+    }
+
+    public static final byte SIDE_NONE = -1;
+
+    // Must be a power of two
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final long DRAIN_INTERVAL_MILLIS = 100;
+
+    private static final String LOG_NAME = "audit.log";
+
+    private static final Event[] EVENTS = Event.values();
+
+    private EnhancedTrade plugin = null;
+    private File directory = null;
+
+    // Ring slots as parallel arrays so appending never allocates
+    private final long[] times = new long[CAPACITY];
+    private final byte[] events = new byte[CAPACITY];
+    private final byte[] sides = new byte[CAPACITY];
+    private final long[] tradeIds = new long[CAPACITY];
+    private final long[] traderHigh = new long[CAPACITY];
+    private final long[] traderLow = new long[CAPACITY];
+    private final long[] tradeeHigh = new long[CAPACITY];
+    private final long[] tradeeLow = new long[CAPACITY];
+    private final int[] amounts = new int[CAPACITY];
+
+    // Next position to write, only advanced by the producer and published after the slot is filled
+    private final AtomicLong tail = new AtomicLong();
+
+    // Next position to read, only advanced by the consumer once the slot has been read
+    private final AtomicLong head = new AtomicLong();
+
+    // The producer's last look at the head, so it only reads the consumer's counter when the ring seems full
+    private long cachedHead = 0;
+
+    private ScheduledExecutorService writer = null;
+
+    // Only touched by the writer thread once it has started
+    private FileChannel channel = null;
+    private long openedAt = 0;
+    private StringBuilder lines = null;
+    private SimpleDateFormat timeFormat = null;
+    private SimpleDateFormat rotateFormat = null;
+
+    /**
+     * Creates an instance of the audit log
+     * @param plugin the plugin to run under
+     * @param directory the directory to write audit logs to
+     */
+    public AuditLog(EnhancedTrade plugin, File directory) {
+        this.plugin = plugin;
+        this.directory = directory;
+
+        lines = new StringBuilder(4096);
+        timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        rotateFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+    }
+
+    /**
+     * Opens audit.log for appending and starts draining the ring in the background
+     * @throws IOException if the log can not be opened
+     */
+    public void open() throws IOException {
+        if(!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        openLog();
+
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EnhancedTrade Audit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Rotated files left uncompressed by a crash are compressed first
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+
+                if(files == null) {return;}
+
+                for(File file: files) {
+                    if(file.getName().startsWith("audit-") && file.getName().endsWith(".log")) {
+                        compress(file);
+                    }
+                }
+            }
+        });
+
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes every event still in the ring and closes the log
+     */
+    public void close() {
+        if(writer != null) {
+            writer.shutdown();
+
+            // The ring only has one consumer, so it can only be drained here once the writer has stopped
+            if(!awaitWriter()) {
+                writer.shutdownNow();
+
+                if(!awaitWriter()) {
+                    plugin.getLogger().warning("The audit writer did not stop, events still waiting to be written were lost");
+                    return;
+                }
+            }
+        }
+
+        try {
+            // Interrupting the writer while it was writing closes the channel under it
+            if(channel != null && !channel.isOpen()) {
+                openLog();
+            }
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Could not reopen the audit log, events still waiting to be written were lost", ex);
+            return;
+        }
+
+        drain();
+
+        try {
+            if(channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.WARNING, "Could not close the audit log", ex);
+        }
+    }
+
+    private boolean awaitWriter() {
+        try {
+            return writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Appends an event, must only be called from the main thread
+     * @param event the event that happened
+     * @param tradeId the journal id of the trade, -1 if it is not journaled
+     * @param traderUUID the UUID of the trader
+     * @param tradeeUUID the UUID of the tradee
+     * @param side the side of the trade that caused the event, SIDE_NONE if neither did
+     * @param amount the money involved, 0 if none
+     * @return if the event was appended, false if the ring was full and it was dropped
+     */
+    public boolean append(Event event, long tradeId, UUID traderUUID, UUID tradeeUUID, byte side, int amount) {
+        long position = tail.get();
+
+        if(position - cachedHead >= CAPACITY) {
+            cachedHead = head.get();
+
+            if(position - cachedHead >= CAPACITY) {
+                plugin.getTradeMetrics().increment(TradeMetrics.Counter.AUDIT_DROPPED);
+                return false;
+            }
+        }
+
+        int index = (int) (position & MASK);
+
+        times[index] = System.currentTimeMillis();
+        events[index] = (byte) event.ordinal();
+        sides[index] = side;
+        tradeIds[index] = tradeId;
+        traderHigh[index] = traderUUID == null ? 0 : traderUUID.getMostSignificantBits();
+        traderLow[index] = traderUUID == null ? 0 : traderUUID.getLeastSignificantBits();
+        tradeeHigh[index] = tradeeUUID == null ? 0 : tradeeUUID.getMostSignificantBits();
+        tradeeLow[index] = tradeeUUID == null ? 0 : tradeeUUID.getLeastSignificantBits();
+        amounts[index] = amount;
+
+        // Ordered store, the slot is visible to the consumer before the new tail is
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    private void drain() {
+        long position = head.get();
+        long available = tail.get();
+
+        try {
+            if(position != available) {
+                for(; position < available; position++) {
+                    int index = (int) (position & MASK);
+
+                    lines.append(timeFormat.format(new Date(times[index]))).append(' ').append(EVENTS[events[index]].name().toLowerCase())
+                            .append(" trade=").append(tradeIds[index])
+                            .append(" trader=").append(new UUID(traderHigh[index], traderLow[index]))
+                            .append(" tradee=").append(new UUID(tradeeHigh[index], tradeeLow[index]))
+                            .append(" side=").append(sideName(sides[index]))
+                            .append(" amount=").append(amounts[index]).append('\n');
+                }
+
+                // The slots have been copied out, so the producer may reuse them
+                head.lazySet(position);
+
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                channel.force(false);
+            }
+
+            TradeSettings settings = plugin.getTradeSettings();
+            long size = channel.size();
+
+            // Age is checked even when nothing was written so a quiet log still rotates on time, an empty log is left alone
+            if(size >= settings.getAuditRotateBytes() || (size > 0 && System.currentTimeMillis() - openedAt >= settings.getAuditRotateMillis())) {
+                rotate();
+            }
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Could not write to the audit log", ex);
+        }
+
+        lines.setLength(0);
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+
+        File log = new File(directory, LOG_NAME);
+        String rotatedName = "audit-" + rotateFormat.format(new Date());
+        File rotated = new File(directory, rotatedName + ".log");
+
+        // Rotations within the same second get a sequence number instead of overwriting each other
+        for(int sequence = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); sequence++) {
+            rotated = new File(directory, rotatedName + "-" + sequence + ".log");
+        }
+
+        if(!log.renameTo(rotated)) {
+            plugin.getLogger().warning("Could not rotate the audit log, appending to it instead");
+            rotated = null;
+        }
+
+        openLog();
+
+        if(rotated != null) {
+            compress(rotated);
+        }
+    }
+
+    private void openLog() throws IOException {
+        channel = new RandomAccessFile(new File(directory, LOG_NAME), "rw").getChannel();
+        channel.position(channel.size());
+
+        // Age is counted from when the log was opened, so a restart starts the rotation time over
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void compress(File file) {
+        File compressed = new File(file.getPath() + ".gz");
+
+        try {
+            InputStream inputStream = new FileInputStream(file);
+
+            try {
+                OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(compressed));
+
+                try {
+                    byte[] bytes = new byte[8192];
+                    int read;
+
+                    while((read = inputStream.read(bytes)) != -1) {
+                        outputStream.write(bytes, 0, read);
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+
+            Files.delete(file.toPath());
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.WARNING, "Could not compress " + file.getName(), ex);
+        }
+    }
+
+    private static String sideName(byte side) {
+        if(side == TradeJournal.SIDE_TRADER) {return "trader";}
+        if(side == TradeJournal.SIDE_TRADEE) {return "tradee";}
+
+        return "none";
+    }
+}
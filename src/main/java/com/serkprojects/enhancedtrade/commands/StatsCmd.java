@@ -0,0 +1,91 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.commands;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.metrics.LatencyHistogram;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.text.Message;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+public class StatsCmd implements CommandExecutor {
+    private EnhancedTrade plugin = null;
+    private CommandExecutor masterExecutor = null;
+
+    /**
+     * Creates an instance of the CommandExecutor adding the stats sub-command to the master command
+     * @param plugin the instance of the plugin to draw settings from
+     * @param masterExecutor the master command executor to pass every other sub-command to
+     */
+    public StatsCmd(EnhancedTrade plugin, CommandExecutor masterExecutor) {
+        this.plugin = plugin;
+        this.masterExecutor = masterExecutor;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+        if(args.length == 0 || !args[0].equalsIgnoreCase("stats")) {
+            return masterExecutor == null || masterExecutor.onCommand(sender, cmd, label, args);
+        }
+
+        if(!sender.hasPermission(plugin.getPermissionPrefix() + ".commands.stats")) {
+            plugin.getMessageCatalogue().send(sender, Message.NO_PERMISSION);
+            return true;
+        }
+
+        TradeMetrics tradeMetrics = plugin.getTradeMetrics();
+        long minutes = (System.currentTimeMillis() - tradeMetrics.getStartedAt()) / 60000;
+
+        plugin.getMessageCatalogue().send(sender, Message.STATS_HEADER, null, (int) minutes);
+
+        for(TradeMetrics.Handler handler: TradeMetrics.Handler.values()) {
+            LatencyHistogram histogram = tradeMetrics.getHistogram(handler);
+
+            if(histogram.getCount() == 0) {continue;}
+
+            plugin.getMessageCatalogue().send(sender, Message.STATS_HANDLER, handler.name().toLowerCase(), 0, String.valueOf(histogram.getCount()),
+                    micros(histogram.getPercentile(0.5)), micros(histogram.getPercentile(0.99)), micros(histogram.getMax()));
+        }
+
+        // Every counter is rendered on its own and joined so they all fit on one line
+        StringBuilder counters = new StringBuilder();
+
+        for(TradeMetrics.Counter counter: TradeMetrics.Counter.values()) {
+            if(counters.length() > 0) {
+                counters.append(' ');
+            }
+
+            counters.append(plugin.getMessageCatalogue().render(Message.STATS_COUNTER, counter.name().toLowerCase(), 0, String.valueOf(tradeMetrics.getCounter(counter))));
+        }
+
+        sender.sendMessage(counters.toString());
+        return true;
+    }
+
+    private String micros(long nanos) {
+        return String.valueOf(nanos / 1000);
+    }
+}
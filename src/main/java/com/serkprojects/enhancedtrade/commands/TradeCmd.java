@@ -24,16 +24,34 @@
 package com.serkprojects.enhancedtrade.commands;
 
 import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.history.HistoryEntry;
+import com.serkprojects.enhancedtrade.history.TradeHistory;
+import com.serkprojects.enhancedtrade.journal.TradeJournal;
 import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.settings.TradeSettings;
+import com.serkprojects.enhancedtrade.text.Message;
+import com.serkprojects.enhancedtrade.trade.TradeRequest;
 import org.bukkit.GameMode;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
 public class TradeCmd implements CommandExecutor {
+    private static final int HISTORY_PAGE_SIZE = 8;
+
     private EnhancedTrade plugin = null;
 
+    // Only used on the main thread
+    private SimpleDateFormat historyDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
     /**
      * Creates an instance of the CommandExecutor for the trade command
      * @param plugin the instance of the plugin to draw settings from
@@ -44,16 +62,24 @@ public class TradeCmd implements CommandExecutor {
 
     @Override
     public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+        // History can be looked up from the console as well
+        if(args.length > 0 && (args[0].equalsIgnoreCase("h") || args[0].equalsIgnoreCase("history"))) {
+            long start = System.nanoTime();
+            historySubCommand(sender, args);
+            plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.COMMAND_HISTORY, start);
+            return true;
+        }
+
         if (!(sender instanceof Player)) {
-            plugin.getMessaging().sendMessage(sender, true, plugin.getLanguage().getMessage("commandPlayerRequired"));
+            plugin.getMessageCatalogue().send(sender, Message.COMMAND_PLAYER_REQUIRED);
             return true;
         }
 
         Player senderPlayer = (Player) sender;
 
         if (args.length == 0) {
-            if(plugin.getConfig().getBoolean("settings.trade.allowedCreativeTrading") && senderPlayer.getGameMode() == GameMode.CREATIVE) {
-                plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeCreativeNotAllowed"));
+            if(!plugin.getTradeSettings().isCreativeTradingAllowed() && senderPlayer.getGameMode() == GameMode.CREATIVE) {
+                plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_CREATIVE_NOT_ALLOWED);
                 return true;
             }
 
@@ -62,28 +88,36 @@ public class TradeCmd implements CommandExecutor {
         }
 
         if (args.length > 0) {
-            if(plugin.getConfig().getBoolean("settings.trade.allowedCreativeTrading") && senderPlayer.getGameMode() == GameMode.CREATIVE) {
-                plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeCreativeNotAllowed"));
+            if(!plugin.getTradeSettings().isCreativeTradingAllowed() && senderPlayer.getGameMode() == GameMode.CREATIVE) {
+                plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_CREATIVE_NOT_ALLOWED);
                 return true;
             }
 
             if(args[0].equalsIgnoreCase("r") || args[0].equalsIgnoreCase("request")) {
+                long start = System.nanoTime();
                 requestSubCommand(sender, args);
+                plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.COMMAND_REQUEST, start);
                 return true;
             }
 
             if(args[0].equalsIgnoreCase("a") || args[0].equalsIgnoreCase("accept")) {
-                acceptSubCommand(sender);
+                long start = System.nanoTime();
+                acceptSubCommand(sender, args);
+                plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.COMMAND_ACCEPT, start);
                 return true;
             }
 
             if(args[0].equals("d") || args[0].equals("deny")) {
-                denySubCommand(sender);
+                long start = System.nanoTime();
+                denySubCommand(sender, args);
+                plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.COMMAND_DENY, start);
                 return true;
             }
 
             if(args[0].equalsIgnoreCase("o") || args[0].equalsIgnoreCase("open")) {
+                long start = System.nanoTime();
                 openSubCommand(sender);
+                plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.COMMAND_OPEN, start);
                 return true;
             }
         }
@@ -93,103 +127,227 @@ public class TradeCmd implements CommandExecutor {
     }
 
     private void help(CommandSender sender) {
-        plugin.getMessaging().sendMessage(sender, true, plugin.getLanguage().getMessage("usageTrade").replace("{name}", plugin.getDescription().getName()));
+        plugin.getMessageCatalogue().send(sender, Message.USAGE_TRADE, plugin.getDescription().getName(), 0);
     }
 
     private void requestSubCommand(CommandSender sender, String[] args) {
         Player senderPlayer = (Player) sender;
 
-        if(plugin.isTrading(senderPlayer.getUniqueId(), false)) {
-            plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeStillGoing"));
+        if(plugin.getTradeRegistry().isTrading(senderPlayer.getUniqueId()) || plugin.getRequestInbox().getOutgoing(senderPlayer.getUniqueId()) != null) {
+            plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_STILL_GOING);
+            return;
+        }
+
+        if(args.length < 2) {
+            help(sender);
             return;
         }
 
         Player targetPlayer = plugin.getServer().getPlayer(args[1]);
 
         if(targetPlayer == null) {
-            plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("playerNotFound").replace("{name}", args[1]));
+            plugin.getMessageCatalogue().send(senderPlayer, Message.PLAYER_NOT_FOUND, args[1], 0);
             return;
         }
 
         if(targetPlayer.getUniqueId().equals(senderPlayer.getUniqueId())) {
-            plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeSelfNotAllowed"));
+            plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_SELF_NOT_ALLOWED);
             return;
         }
 
-        TradeMenu tradeMenu = new TradeMenu(plugin);
-        tradeMenu.setTraderUUID(senderPlayer.getUniqueId());
-        tradeMenu.setTradeeUUID(targetPlayer.getUniqueId());
+        TradeSettings settings = plugin.getTradeSettings();
+
+        // Checked before the rate limit so a request that could never be added does not spend a token
+        if(plugin.getRequestInbox().isFull(targetPlayer.getUniqueId(), settings.getMaxPendingRequests())) {
+            plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_REQUEST_INBOX_FULL, targetPlayer.getName(), 0);
+            return;
+        }
+
+        if(settings.getRequestRefillMillis() > 0) {
+            long wait = plugin.getRequestRateLimiter().tryAcquire(senderPlayer.getUniqueId(), System.currentTimeMillis(), settings.getRequestBurst(), settings.getRequestRefillMillis());
+
+            if(wait > 0) {
+                plugin.getTradeMetrics().increment(TradeMetrics.Counter.RATE_LIMITED);
+                plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_REQUEST_RATE_LIMITED, null, (int) ((wait + 999) / 1000));
+                return;
+            }
+        }
+
+        // Only the request is kept until it is accepted, the menu and its inventory are created on acceptance
+        TradeRequest tradeRequest = new TradeRequest(senderPlayer.getUniqueId(), senderPlayer.getName(), targetPlayer.getUniqueId(), targetPlayer.getName());
 
-        plugin.addActiveTrade(tradeMenu);
-        plugin.getTradeCancelTask().addTradeCounter(tradeMenu);
+        if(!plugin.getRequestInbox().add(tradeRequest, settings.getMaxPendingRequests())) {
+            plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_REQUEST_INBOX_FULL, targetPlayer.getName(), 0);
+            return;
+        }
+
+        plugin.getTradeScheduler().scheduleRequestExpiry(tradeRequest, settings.getCancelTicks());
+        plugin.getTradeMetrics().increment(TradeMetrics.Counter.REQUESTED);
 
-        plugin.getMessaging().sendMessage(sender, true, plugin.getLanguage().getMessage("tradePlayer").replace("{name}", targetPlayer.getName()));
-        plugin.getMessaging().sendMessage(targetPlayer, true, plugin.getLanguage().getMessage("tradeSent").replace("{name}", targetPlayer.getName()));
+        plugin.getMessageCatalogue().send(sender, Message.TRADE_PLAYER, targetPlayer.getName(), 0);
+        plugin.getMessageCatalogue().send(targetPlayer, Message.TRADE_SENT, senderPlayer.getName(), 0);
     }
 
-    private void acceptSubCommand(CommandSender sender) {
+    private void acceptSubCommand(CommandSender sender, String[] args) {
         Player senderPlayer = (Player) sender;
 
-        if(plugin.isTrading(senderPlayer.getUniqueId(), true)) {
-            plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeStillGoing"));
+        if(plugin.getTradeRegistry().isTrading(senderPlayer.getUniqueId())) {
+            plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_STILL_GOING);
             return;
         }
 
-        for(TradeMenu tradeMenu: plugin.getActiveTrades()) {
-            if(tradeMenu.getTraderUUID() != null && tradeMenu.getTradeeUUID().equals(senderPlayer.getUniqueId())) {
-                Player traderPlayer = plugin.getServer().getPlayer(tradeMenu.getTraderUUID());
-                plugin.getTradeCancelTask().removeTradeCounter(tradeMenu);
-                tradeMenu.acceptTrade();
-                senderPlayer.openInventory(tradeMenu.getInventory());
-                plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeAccept").replace("{name}", traderPlayer.getName()));
-                plugin.getMessaging().sendMessage(traderPlayer, true, plugin.getLanguage().getMessage("tradeAccepted").replace("{name}", senderPlayer.getName()));
-                return;
-            }
+        TradeRequest tradeRequest = findRequest(senderPlayer, args);
+
+        if(tradeRequest == null) {return;}
+
+        Player traderPlayer = plugin.getServer().getPlayer(tradeRequest.getTraderUUID());
+
+        // A request from a player who has since left or started another trade can only be denied
+        if(traderPlayer == null || plugin.getTradeRegistry().isTrading(tradeRequest.getTraderUUID())) {
+            plugin.getRequestInbox().deny(tradeRequest);
+            return;
+        }
+
+        TradeMenu tradeMenu = new TradeMenu(plugin);
+        tradeMenu.setTraderUUID(tradeRequest.getTraderUUID());
+        tradeMenu.setTradeeUUID(tradeRequest.getTradeeUUID());
+
+        // The request stays waiting if the trade can not be registered
+        if(!plugin.getTradeRegistry().register(tradeMenu)) {
+            plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_STILL_GOING);
+            return;
+        }
+
+        plugin.getRequestInbox().remove(tradeRequest);
+
+        // The sender can only be in one trade, so their own request is withdrawn
+        TradeRequest outgoingRequest = plugin.getRequestInbox().getOutgoing(senderPlayer.getUniqueId());
+
+        if(outgoingRequest != null) {
+            plugin.getRequestInbox().remove(outgoingRequest);
         }
+
+        tradeMenu.acceptTrade();
+        plugin.getTradeMetrics().increment(TradeMetrics.Counter.ACCEPTED);
+        senderPlayer.openInventory(tradeMenu.getInventory());
+        plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_ACCEPT, traderPlayer.getName(), 0);
+        plugin.getMessageCatalogue().send(traderPlayer, Message.TRADE_ACCEPTED, senderPlayer.getName(), 0);
     }
 
-    private void denySubCommand(CommandSender sender) {
+    private void denySubCommand(CommandSender sender, String[] args) {
         Player senderPlayer = (Player) sender;
 
-        if(!plugin.isTrading(senderPlayer.getUniqueId(), true)) {
-            plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeNotWaiting"));
-            return;
+        // Requests waiting on the sender take priority over a request the sender made
+        if(args.length < 2 && plugin.getRequestInbox().getOldest(senderPlayer.getUniqueId()) == null) {
+            TradeRequest outgoingRequest = plugin.getRequestInbox().getOutgoing(senderPlayer.getUniqueId());
+
+            if(outgoingRequest != null) {
+                plugin.getRequestInbox().deny(outgoingRequest);
+                return;
+            }
+        }
+
+        TradeRequest tradeRequest = findRequest(senderPlayer, args);
+
+        if(tradeRequest != null) {
+            plugin.getRequestInbox().deny(tradeRequest);
         }
+    }
+
+    private TradeRequest findRequest(Player senderPlayer, String[] args) {
+        if(args.length < 2) {
+            TradeRequest tradeRequest = plugin.getRequestInbox().getOldest(senderPlayer.getUniqueId());
 
-        TradeMenu currentTradeMenu = null;
-        for(TradeMenu tradeMenu: plugin.getActiveTrades()) {
-            if(tradeMenu.getTraderUUID().equals(senderPlayer.getUniqueId()) && tradeMenu.isAwaitingAcceptance() || tradeMenu.getTradeeUUID().equals(senderPlayer.getUniqueId()) && tradeMenu.isAwaitingAcceptance()) {
-                currentTradeMenu = tradeMenu;
+            if(tradeRequest == null) {
+                plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_NOT_WAITING);
             }
+
+            return tradeRequest;
         }
 
-        if(currentTradeMenu == null) {
-            plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeNotWaiting"));
-        } else {
-            currentTradeMenu.denyTrade();
+        TradeRequest tradeRequest = plugin.getRequestInbox().getRequest(senderPlayer.getUniqueId(), args[1]);
+
+        if(tradeRequest == null) {
+            plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_REQUEST_NOT_FOUND, args[1], 0);
         }
+
+        return tradeRequest;
     }
 
-    private void openSubCommand(CommandSender sender) {
-        Player senderPlayer = (Player) sender;
+    private void historySubCommand(CommandSender sender, String[] args) {
+        if(!sender.hasPermission(plugin.getPermissionPrefix() + ".commands.history")) {
+            plugin.getMessageCatalogue().send(sender, Message.NO_PERMISSION);
+            return;
+        }
+
+        if(args.length < 2) {
+            help(sender);
+            return;
+        }
 
-        if(!plugin.isTrading(senderPlayer.getUniqueId(), true)) {
-            plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeStillWaiting"));
+        TradeHistory tradeHistory = plugin.getTradeHistory();
+
+        if(tradeHistory == null) {
+            plugin.getMessageCatalogue().send(sender, Message.HISTORY_UNAVAILABLE);
             return;
         }
 
-        TradeMenu currentTradeMenu = null;
-        for(TradeMenu tradeMenu: plugin.getActiveTrades()) {
-            if(tradeMenu.getTraderUUID().equals(senderPlayer.getUniqueId()) && tradeMenu.isAwaitingAcceptance() || tradeMenu.getTradeeUUID().equals(senderPlayer.getUniqueId()) && tradeMenu.isAwaitingAcceptance()) {
-                plugin.getMessaging().sendMessage(senderPlayer, true, plugin.getLanguage().getMessage("tradeWaiting"));
+        int page = 1;
+
+        if(args.length > 2) {
+            try {
+                page = Math.max(1, Integer.parseInt(args[2]));
+            } catch (NumberFormatException ex) {
+                help(sender);
                 return;
             }
+        }
+
+        // Names are resolved from the history itself so offline players never need a lookup
+        Player targetPlayer = plugin.getServer().getPlayerExact(args[1]);
+        UUID targetUUID = targetPlayer != null ? targetPlayer.getUniqueId() : tradeHistory.findPlayer(args[1]);
+        List<HistoryEntry> entries = targetUUID == null ? Collections.<HistoryEntry>emptyList() : tradeHistory.getEntries(targetUUID, page - 1, HISTORY_PAGE_SIZE);
+
+        if(entries.isEmpty()) {
+            plugin.getMessageCatalogue().send(sender, Message.HISTORY_EMPTY, args[1], 0);
+            return;
+        }
+
+        plugin.getMessageCatalogue().send(sender, Message.HISTORY_HEADER, args[1], page);
 
-            currentTradeMenu = tradeMenu;
+        for(HistoryEntry entry: entries) {
+            sendHistoryEntry(sender, targetUUID, entry);
         }
+    }
+
+    private void sendHistoryEntry(CommandSender sender, UUID UUID, HistoryEntry entry) {
+        boolean trader = UUID.equals(entry.getTraderUUID());
+        String partnerName = trader ? entry.getTradeeName() : entry.getTraderName();
+        Message message = entry.getOutcome() == TradeJournal.OUTCOME_COMPLETED ? Message.HISTORY_ENTRY_COMPLETED : Message.HISTORY_ENTRY_CANCELLED;
+
+        plugin.getMessageCatalogue().send(sender, message, partnerName, 0,
+                historyDateFormat.format(new Date(entry.getSettledAt())),
+                String.valueOf(trader ? entry.getTraderItemCount() : entry.getTradeeItemCount()),
+                plugin.getCurrencyFormatter().format(trader ? entry.getTraderMoney() : entry.getTradeeMoney()),
+                String.valueOf(trader ? entry.getTradeeItemCount() : entry.getTraderItemCount()),
+                plugin.getCurrencyFormatter().format(trader ? entry.getTradeeMoney() : entry.getTraderMoney()));
+    }
+
+    private void openSubCommand(CommandSender sender) {
+        Player senderPlayer = (Player) sender;
+
+        TradeMenu currentTradeMenu = plugin.getTradeRegistry().getTrade(senderPlayer.getUniqueId());
 
-        if(currentTradeMenu != null) {
-            senderPlayer.openInventory(currentTradeMenu.getInventory());
+        if(currentTradeMenu == null) {
+            if(plugin.getRequestInbox().getOutgoing(senderPlayer.getUniqueId()) != null) {
+                plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_WAITING);
+            } else {
+                plugin.getMessageCatalogue().send(senderPlayer, Message.TRADE_STILL_WAITING);
+            }
+
+            return;
         }
+
+        senderPlayer.openInventory(currentTradeMenu.getInventory());
     }
 }
@@ -0,0 +1,270 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.economy;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.journal.TradeJournal;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Settles trade money against the economy off the main thread.
+ * Transactions submitted during a tick are handed to a single worker thread as one batch at the end of the tick,
+ * the worker applies them in submission order and failures, and the outcome of every hold, are reported back on the main thread.
+ */
+public class EconomyPipeline extends BukkitRunnable {
+    private EnhancedTrade plugin = null;
+    private Economy economy = null;
+    private TradeJournal tradeJournal = null;
+
+    private ExecutorService worker = null;
+    private List<EconomyTransaction> batch = null;
+    private long nextId = 0;
+
+    /**
+     * Creates an instance of the economy pipeline
+     * @param plugin the plugin to run under
+     * @param economy the economy to settle against
+     */
+    public EconomyPipeline(EnhancedTrade plugin, Economy economy) {
+        this.plugin = plugin;
+        this.economy = economy;
+
+        batch = new ArrayList<EconomyTransaction>();
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EnhancedTrade Economy");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets the journal that escrow changes are written ahead to
+     * @param tradeJournal the journal to record in or null to stop recording
+     */
+    public void setTradeJournal(TradeJournal tradeJournal) {
+        this.tradeJournal = tradeJournal;
+    }
+
+    /**
+     * Starts flushing submitted transactions every tick
+     */
+    public void start() {
+        runTaskTimer(plugin, 1, 1);
+    }
+
+    /**
+     * Flushes anything still waiting and waits for the worker to finish settling it
+     */
+    public void stop() {
+        cancel();
+        run();
+        worker.shutdown();
+
+        try {
+            if(!worker.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for trade money to settle, some transactions may not have been applied");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        if(batch.isEmpty()) {return;}
+
+        final List<EconomyTransaction> transactions = batch;
+        batch = new ArrayList<EconomyTransaction>();
+
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean[] journaled = journalIntents(transactions);
+
+                for(int i = 0; i < transactions.size(); i++) {
+                    settle(transactions.get(i), journaled[i]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Withdraws money from the owner of an escrow account into it
+     * @param escrowAccount the escrow account to hold money in
+     * @param amount the amount to withdraw
+     * @param failureCallback called on the main thread if the withdrawal fails, may be null
+     * @return the submitted transaction
+     */
+    public EconomyTransaction hold(EscrowAccount escrowAccount, double amount, Runnable failureCallback) {
+        escrowAccount.holdSubmitted();
+        return submit(EconomyTransaction.Type.HOLD, escrowAccount, escrowAccount.getOwner(), amount, failureCallback);
+    }
+
+    /**
+     * Returns money held in an escrow account to its owner, never more than is held
+     * @param escrowAccount the escrow account to return money from
+     * @param amount the amount to return
+     * @param failureCallback called on the main thread if the deposit fails, may be null
+     * @return the submitted transaction
+     */
+    public EconomyTransaction giveBack(EscrowAccount escrowAccount, double amount, Runnable failureCallback) {
+        return submit(EconomyTransaction.Type.RETURN, escrowAccount, escrowAccount.getOwner(), amount, failureCallback);
+    }
+
+    /**
+     * Pays everything held in an escrow account to a recipient
+     * @param escrowAccount the escrow account to empty
+     * @param recipient the player to pay
+     * @param failureCallback called on the main thread if the deposit fails, may be null
+     * @return the submitted transaction
+     */
+    public EconomyTransaction release(EscrowAccount escrowAccount, OfflinePlayer recipient, Runnable failureCallback) {
+        return submit(EconomyTransaction.Type.RELEASE, escrowAccount, recipient, 0, failureCallback);
+    }
+
+    private EconomyTransaction submit(EconomyTransaction.Type type, EscrowAccount escrowAccount, OfflinePlayer recipient, double amount, Runnable failureCallback) {
+        EconomyTransaction transaction = new EconomyTransaction(nextId++, type, escrowAccount, recipient, amount, failureCallback);
+        batch.add(transaction);
+        return transaction;
+    }
+
+    private boolean[] journalIntents(List<EconomyTransaction> transactions) {
+        boolean[] journaled = new boolean[transactions.size()];
+
+        if(tradeJournal == null) {return journaled;}
+
+        // Held amounts are projected through the batch as if every transaction succeeds, done records carry what actually moved
+        IdentityHashMap<EscrowAccount, Double> projectedHeld = new IdentityHashMap<EscrowAccount, Double>();
+        boolean written = false;
+
+        for(int i = 0; i < transactions.size(); i++) {
+            EconomyTransaction transaction = transactions.get(i);
+            EscrowAccount escrowAccount = transaction.getEscrowAccount();
+
+            if(escrowAccount.getJournalId() < 0) {continue;}
+
+            Double held = projectedHeld.get(escrowAccount);
+            double planned = transaction.getPlannedAmount(held == null ? escrowAccount.getHeld() : held);
+
+            if(planned <= 0) {continue;}
+
+            double delta = transaction.getType() == EconomyTransaction.Type.HOLD ? planned : -planned;
+            projectedHeld.put(escrowAccount, (held == null ? escrowAccount.getHeld() : held) + delta);
+
+            tradeJournal.recordMoneyIntent(transaction.getId(), escrowAccount.getJournalId(), escrowAccount.getSide(), delta);
+            journaled[i] = true;
+            written = true;
+        }
+
+        // Every intent in the batch is synced with one write before the economy is touched, so a crash part way through still leaves a record to recover from
+        if(written) {
+            tradeJournal.flush();
+        }
+
+        return journaled;
+    }
+
+    private void settle(EconomyTransaction transaction, boolean journaled) {
+        EscrowAccount escrowAccount = transaction.getEscrowAccount();
+        double planned = transaction.getPlannedAmount();
+
+        boolean success;
+        long start = System.nanoTime();
+
+        try {
+            success = transaction.apply(economy);
+        } catch (Exception ex) {
+            plugin.getLogger().log(Level.WARNING, "Trade money transaction " + transaction.getId() + " failed", ex);
+            success = false;
+        }
+
+        // Only this worker records economy calls, so the histogram keeps a single writer
+        plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.ECONOMY_CALL, start);
+
+        if(journaled) {
+            double moved = !success ? 0 : transaction.getType() == EconomyTransaction.Type.HOLD ? transaction.getSettledAmount() : -transaction.getSettledAmount();
+            tradeJournal.recordMoneyDone(transaction.getId(), moved);
+        }
+
+        if(!success) {
+            plugin.getLogger().warning("Could not " + transaction.getType().name().toLowerCase() + " " + transaction.getAmount() + " for " + transaction.getRecipient().getName());
+
+            if(transaction.getType() != EconomyTransaction.Type.HOLD && planned > 0) {
+                owe(transaction, planned);
+            }
+        }
+
+        if(transaction.getType() == EconomyTransaction.Type.HOLD) {
+            reportHold(transaction, success);
+        } else if(!success && transaction.getFailureCallback() != null && plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, transaction.getFailureCallback());
+        }
+    }
+
+    private void owe(EconomyTransaction transaction, double amount) {
+        EscrowAccount escrowAccount = transaction.getEscrowAccount();
+
+        // Taken out of the escrow so nothing can pay it out a second time, the journal pays it on the next start
+        escrowAccount.setHeld(escrowAccount.getHeld() - amount);
+
+        if(tradeJournal == null) {
+            plugin.getLogger().severe("Could not pay " + amount + " to " + transaction.getRecipient().getName() + " and the trade journal is unavailable, it will not be paid");
+            return;
+        }
+
+        tradeJournal.recordMoneyOwed(escrowAccount.getJournalId(), escrowAccount.getSide(), transaction.getRecipient().getUniqueId(), amount);
+    }
+
+    private void reportHold(final EconomyTransaction transaction, final boolean success) {
+        // Trades still waiting on the hold are cancelled while disabling, so there is nobody to report to
+        if(!plugin.isEnabled()) {return;}
+
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                // The failure is handled first so a trade waiting on the hold sees it before it is told the holds settled
+                if(!success && transaction.getFailureCallback() != null) {
+                    transaction.getFailureCallback().run();
+                }
+
+                transaction.getEscrowAccount().holdSettled();
+            }
+        });
+    }
+}
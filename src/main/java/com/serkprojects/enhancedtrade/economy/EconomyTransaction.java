@@ -0,0 +1,167 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.economy;
+
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.OfflinePlayer;
+
+public class EconomyTransaction {
+    public enum Type {
+        // Withdraw from the owner into the escrow
+        HOLD,
+        // Return up to the amount from the escrow to the owner
+        RETURN,
+        // Pay everything held in the escrow to a recipient
+        RELEASE
+    }
+
+    private long id = 0;
+    private Type type = null;
+    private EscrowAccount escrowAccount = null;
+    private OfflinePlayer recipient = null;
+    private double amount = 0;
+    private Runnable failureCallback = null;
+
+    private boolean applied = false;
+    private double settledAmount = 0;
+
+    EconomyTransaction(long id, Type type, EscrowAccount escrowAccount, OfflinePlayer recipient, double amount, Runnable failureCallback) {
+        this.id = id;
+        this.type = type;
+        this.escrowAccount = escrowAccount;
+        this.recipient = recipient;
+        this.amount = amount;
+        this.failureCallback = failureCallback;
+    }
+
+    /**
+     * Returns the id of the transaction, ids increase in submission order
+     * @return the id of the transaction
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the type of the transaction
+     * @return the type of the transaction
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the player money is moved from or to
+     * @return the player money is moved from or to
+     */
+    public OfflinePlayer getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * Returns the requested amount of the transaction
+     * @return the requested amount of the transaction
+     */
+    public double getAmount() {
+        return amount;
+    }
+
+    /**
+     * Returns the amount that was actually moved once the transaction has been applied
+     * @return the amount that was actually moved
+     */
+    public double getSettledAmount() {
+        return settledAmount;
+    }
+
+    EscrowAccount getEscrowAccount() {
+        return escrowAccount;
+    }
+
+    Runnable getFailureCallback() {
+        return failureCallback;
+    }
+
+    /**
+     * Returns the amount applying the transaction would move, given what is held in its escrow account right now
+     * @return the amount applying the transaction would move
+     */
+    double getPlannedAmount() {
+        return getPlannedAmount(escrowAccount.getHeld());
+    }
+
+    /**
+     * Returns the amount applying the transaction would move if its escrow account held a given amount
+     * @param held the amount held in the escrow account
+     * @return the amount applying the transaction would move
+     */
+    double getPlannedAmount(double held) {
+        switch (type) {
+            case HOLD:
+                return amount;
+            case RETURN:
+                return Math.min(amount, held);
+            case RELEASE:
+                return held;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Applies the transaction against the economy, applying a transaction more than once has no effect
+     * @param economy the economy to apply against
+     * @return if the transaction succeeded
+     */
+    boolean apply(Economy economy) {
+        if(applied) {return true;}
+        applied = true;
+
+        switch (type) {
+            case HOLD: {
+                EconomyResponse response = economy.withdrawPlayer(recipient, amount);
+                if(response == null || !response.transactionSuccess()) {return false;}
+
+                escrowAccount.setHeld(escrowAccount.getHeld() + amount);
+                settledAmount = amount;
+                return true;
+            }
+            case RETURN:
+            case RELEASE: {
+                double payout = getPlannedAmount();
+                if(payout <= 0) {return true;}
+
+                EconomyResponse response = economy.depositPlayer(recipient, payout);
+                if(response == null || !response.transactionSuccess()) {return false;}
+
+                escrowAccount.setHeld(escrowAccount.getHeld() - payout);
+                settledAmount = payout;
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+}
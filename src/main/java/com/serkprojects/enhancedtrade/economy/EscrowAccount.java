@@ -0,0 +1,122 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.economy;
+
+import org.bukkit.OfflinePlayer;
+
+/**
+ * Money held on behalf of one side of a trade.
+ * The held amount only counts money that has actually been withdrawn from the owner and is only touched by the pipeline worker,
+ * withdrawals still on their way are counted on the main thread so a trade can wait for them before it settles.
+ */
+public class EscrowAccount {
+    private OfflinePlayer owner = null;
+    private long journalId = -1;
+    private byte side = 0;
+    private double held = 0;
+
+    // Withdrawals submitted but not yet reported back, only touched on the main thread
+    private int pendingHolds = 0;
+    private Runnable holdsSettledCallback = null;
+
+    /**
+     * Creates an instance of an escrow account
+     * @param owner the player the money is held for
+     * @param journalId the journal id of the trade or -1 if the trade is not journaled
+     * @param side the side of the trade the account belongs to
+     */
+    public EscrowAccount(OfflinePlayer owner, long journalId, byte side) {
+        this.owner = owner;
+        this.journalId = journalId;
+        this.side = side;
+    }
+
+    /**
+     * Returns the player the money is held for
+     * @return the player the money is held for
+     */
+    public OfflinePlayer getOwner() {
+        return owner;
+    }
+
+    /**
+     * Returns the journal id of the trade
+     * @return the journal id of the trade or -1 if the trade is not journaled
+     */
+    public long getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * Returns the side of the trade the account belongs to
+     * @return the side of the trade the account belongs to
+     */
+    public byte getSide() {
+        return side;
+    }
+
+    /**
+     * Returns if any withdrawal into the account has not been reported back yet
+     * @return if any withdrawal into the account is still pending
+     */
+    public boolean hasPendingHolds() {
+        return pendingHolds > 0;
+    }
+
+    /**
+     * Runs a callback on the main thread once every pending withdrawal into the account has been reported back,
+     * straight away if there are none, replacing any callback already waiting
+     * @param callback the callback to run
+     */
+    public void whenHoldsSettled(Runnable callback) {
+        if(pendingHolds == 0) {
+            callback.run();
+            return;
+        }
+
+        holdsSettledCallback = callback;
+    }
+
+    void holdSubmitted() {
+        pendingHolds++;
+    }
+
+    void holdSettled() {
+        pendingHolds--;
+
+        if(pendingHolds > 0 || holdsSettledCallback == null) {return;}
+
+        Runnable callback = holdsSettledCallback;
+        holdsSettledCallback = null;
+        callback.run();
+    }
+
+    double getHeld() {
+        return held;
+    }
+
+    void setHeld(double held) {
+        this.held = held;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.history;
+
+import java.util.UUID;
+
+/**
+ * Summary of a settled trade as kept in the history index, the items themselves are only kept on disk
+ */
+public class HistoryEntry {
+    private final long id;
+    private final long openedAt;
+    private final long settledAt;
+    private final byte outcome;
+    private final UUID traderUUID;
+    private final String traderName;
+    private final UUID tradeeUUID;
+    private final String tradeeName;
+    private final int traderMoney;
+    private final int tradeeMoney;
+    private final int traderItemCount;
+    private final int tradeeItemCount;
+
+    /**
+     * Creates an instance of a history entry
+     * @param id the id of the entry, assigned when it is recorded
+     * @param openedAt the time in milliseconds the trade was accepted
+     * @param settledAt the time in milliseconds the trade was settled
+     * @param outcome the outcome of the trade, one of the TradeJournal outcomes
+     * @param traderUUID the UUID of the trader
+     * @param traderName the name of the trader
+     * @param tradeeUUID the UUID of the tradee
+     * @param tradeeName the name of the tradee
+     * @param traderMoney the money the trader offered
+     * @param tradeeMoney the money the tradee offered
+     * @param traderItemCount the number of item stacks the trader offered
+     * @param tradeeItemCount the number of item stacks the tradee offered
+     */
+    public HistoryEntry(long id, long openedAt, long settledAt, byte outcome, UUID traderUUID, String traderName, UUID tradeeUUID, String tradeeName,
+                        int traderMoney, int tradeeMoney, int traderItemCount, int tradeeItemCount) {
+        this.id = id;
+        this.openedAt = openedAt;
+        this.settledAt = settledAt;
+        this.outcome = outcome;
+        this.traderUUID = traderUUID;
+        this.traderName = traderName;
+        this.tradeeUUID = tradeeUUID;
+        this.tradeeName = tradeeName;
+        this.traderMoney = traderMoney;
+        this.tradeeMoney = tradeeMoney;
+        this.traderItemCount = traderItemCount;
+        this.tradeeItemCount = tradeeItemCount;
+    }
+
+    /**
+     * Returns the id of the entry
+     * @return the id of the entry, later entries have higher ids
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns when the trade was accepted
+     * @return the time in milliseconds the trade was accepted
+     */
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    /**
+     * Returns when the trade was settled
+     * @return the time in milliseconds the trade was settled
+     */
+    public long getSettledAt() {
+        return settledAt;
+    }
+
+    /**
+     * Returns the outcome of the trade
+     * @return the outcome of the trade, one of the TradeJournal outcomes
+     */
+    public byte getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns the UUID of the trader
+     * @return the UUID of the trader
+     */
+    public UUID getTraderUUID() {
+        return traderUUID;
+    }
+
+    /**
+     * Returns the name of the trader when the trade was settled
+     * @return the name of the trader when the trade was settled
+     */
+    public String getTraderName() {
+        return traderName;
+    }
+
+    /**
+     * Returns the UUID of the tradee
+     * @return the UUID of the tradee
+     */
+    public UUID getTradeeUUID() {
+        return tradeeUUID;
+    }
+
+    /**
+     * Returns the name of the tradee when the trade was settled
+     * @return the name of the tradee when the trade was settled
+     */
+    public String getTradeeName() {
+        return tradeeName;
+    }
+
+    /**
+     * Returns the money the trader offered
+     * @return the money the trader offered
+     */
+    public int getTraderMoney() {
+        return traderMoney;
+    }
+
+    /**
+     * Returns the money the tradee offered
+     * @return the money the tradee offered
+     */
+    public int getTradeeMoney() {
+        return tradeeMoney;
+    }
+
+    /**
+     * Returns the number of item stacks the trader offered
+     * @return the number of item stacks the trader offered
+     */
+    public int getTraderItemCount() {
+        return traderItemCount;
+    }
+
+    /**
+     * Returns the number of item stacks the tradee offered
+     * @return the number of item stacks the tradee offered
+     */
+    public int getTradeeItemCount() {
+        return tradeeItemCount;
+    }
+}
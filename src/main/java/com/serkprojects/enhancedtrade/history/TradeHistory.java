@@ -0,0 +1,592 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.history;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import gnu.trove.map.hash.THashMap;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of settled trades split into numbered segment files, with in-memory indexes by player and by time.
+ * Records are built on the main thread and handed to a background thread through a bounded queue, the background
+ * thread appends them to the newest segment and periodically compacts older segments, dropping expired records and
+ * merging small segments. Each record is stored as its length, a CRC32 of its body and the body, like the trade journal.
+ * The indexes only hold summaries and are only touched on the main thread, so queries never read the log.
+ */
+public class TradeHistory {
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+    private static final long COMPACT_INTERVAL_MINUTES = 60;
+
+    // Offset of the settled time in a record body, after the id and opened time
+    private static final int SETTLED_AT_OFFSET = 16;
+
+    private EnhancedTrade plugin = null;
+    private File directory = null;
+
+    private ArrayBlockingQueue<byte[]> queue = null;
+    private ScheduledExecutorService writer = null;
+
+    // Only touched by the writer thread once it has started
+    private List<Long> segmentIds = null;
+    private FileChannel channel = null;
+
+    private long nextId = 0;
+
+    // Every entry oldest first, and every entry a player took part in oldest first
+    private List<HistoryEntry> timeIndex = null;
+    private THashMap<UUID, List<HistoryEntry>> playerIndex = null;
+
+    // Lower case player name to the UUID it last belonged to
+    private THashMap<String, UUID> nameIndex = null;
+
+    /**
+     * Creates an instance of the trade history
+     * @param plugin the plugin to run under
+     * @param directory the directory to keep segments in
+     */
+    public TradeHistory(EnhancedTrade plugin, File directory) {
+        this.plugin = plugin;
+        this.directory = directory;
+
+        queue = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+        segmentIds = new ArrayList<Long>();
+        timeIndex = new ArrayList<HistoryEntry>();
+        playerIndex = new THashMap<UUID, List<HistoryEntry>>();
+        nameIndex = new THashMap<String, UUID>();
+    }
+
+    /**
+     * Loads the indexes from every segment then starts writing and compacting in the background
+     * @throws IOException if the segments can not be read or written
+     */
+    public void open() throws IOException {
+        if(!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File[] files = directory.listFiles();
+
+        if(files != null) {
+            for(File segmentFile: files) {
+                String name = segmentFile.getName();
+
+                if(!name.endsWith(SEGMENT_SUFFIX)) {continue;}
+
+                try {
+                    segmentIds.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    plugin.getLogger().warning("Ignoring unknown trade history file " + name);
+                }
+            }
+        }
+
+        Collections.sort(segmentIds);
+
+        long validLength = 0;
+
+        for(long segmentId: segmentIds) {
+            validLength = load(segmentFile(segmentId));
+        }
+
+        // Ids keep increasing across restarts even once every segment has expired
+        nextId = Math.max(nextId, System.currentTimeMillis());
+
+        if(segmentIds.isEmpty()) {
+            segmentIds.add(1L);
+        }
+
+        channel = new RandomAccessFile(segmentFile(currentSegmentId()), "rw").getChannel();
+
+        // A torn record at the end of the newest segment is cut off so new records follow the last good one
+        channel.truncate(validLength);
+        channel.position(validLength);
+
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EnhancedTrade History");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, 1, COMPACT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Writes everything still queued and closes the history
+     */
+    public void close() {
+        if(writer != null) {
+            writer.shutdown();
+
+            try {
+                writer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+
+        try {
+            if(channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.WARNING, "Could not close the trade history", ex);
+        }
+    }
+
+    /**
+     * Records a settled trade, the record is written in the background and the trade can be queried straight away
+     * @param openedAt the time in milliseconds the trade was accepted
+     * @param outcome the outcome of the trade, one of the TradeJournal outcomes
+     * @param traderUUID the UUID of the trader
+     * @param traderName the name of the trader
+     * @param tradeeUUID the UUID of the tradee
+     * @param tradeeName the name of the tradee
+     * @param traderMoney the money the trader offered
+     * @param tradeeMoney the money the tradee offered
+     * @param traderItems the items the trader offered
+     * @param tradeeItems the items the tradee offered
+     * @return the recorded entry
+     */
+    public HistoryEntry record(long openedAt, byte outcome, UUID traderUUID, String traderName, UUID tradeeUUID, String tradeeName,
+                               int traderMoney, int tradeeMoney, List<ItemStack> traderItems, List<ItemStack> tradeeItems) {
+        HistoryEntry entry = new HistoryEntry(nextId++, openedAt, System.currentTimeMillis(), outcome, traderUUID, traderName, tradeeUUID, tradeeName,
+                traderMoney, tradeeMoney, traderItems.size(), tradeeItems.size());
+
+        index(entry);
+
+        // Items are serialized here, they may be changed on the main thread as soon as this returns
+        byte[] traderBytes = serialize(traderItems);
+        byte[] tradeeBytes = serialize(tradeeItems);
+        byte[] traderNameBytes = traderName.getBytes(StandardCharsets.UTF_8);
+        byte[] tradeeNameBytes = tradeeName.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer body = ByteBuffer.allocate(8 + 8 + 8 + 1 + 32 + 2 + traderNameBytes.length + 2 + tradeeNameBytes.length + 4 + 4 + 2 + 2
+                + 4 + traderBytes.length + 4 + tradeeBytes.length);
+        body.putLong(entry.getId()).putLong(openedAt).putLong(entry.getSettledAt()).put(outcome);
+        putUUID(body, traderUUID);
+        putUUID(body, tradeeUUID);
+        body.putShort((short) traderNameBytes.length).put(traderNameBytes);
+        body.putShort((short) tradeeNameBytes.length).put(tradeeNameBytes);
+        body.putInt(traderMoney).putInt(tradeeMoney);
+        body.putShort((short) traderItems.size()).putShort((short) tradeeItems.size());
+        body.putInt(traderBytes.length).put(traderBytes);
+        body.putInt(tradeeBytes.length).put(tradeeBytes);
+
+        byte[] bodyBytes = body.array();
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes);
+
+        ByteBuffer record = ByteBuffer.allocate(8 + bodyBytes.length);
+        record.putInt(bodyBytes.length).putInt((int) crc.getValue()).put(bodyBytes);
+
+        // The main thread never waits on the disk, a full queue means the writer is badly behind
+        if(!queue.offer(record.array())) {
+            plugin.getLogger().warning("The trade history queue is full, trade " + entry.getId() + " will only be kept until the next restart");
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns a page of the trades a player took part in, newest first
+     * @param UUID the UUID of the player
+     * @param page the page to return, starting at 0
+     * @param pageSize the number of entries on a page
+     * @return the entries on the page, empty if there are none
+     */
+    public List<HistoryEntry> getEntries(UUID UUID, int page, int pageSize) {
+        List<HistoryEntry> entries = playerIndex.get(UUID);
+
+        if(entries == null || page < 0) {return Collections.emptyList();}
+
+        int end = entries.size() - page * pageSize;
+        int start = Math.max(0, end - pageSize);
+
+        if(end <= 0) {return Collections.emptyList();}
+
+        List<HistoryEntry> pageEntries = new ArrayList<HistoryEntry>(end - start);
+
+        for(int i = end - 1; i >= start; i--) {
+            pageEntries.add(entries.get(i));
+        }
+
+        return pageEntries;
+    }
+
+    /**
+     * Returns the number of trades a player took part in
+     * @param UUID the UUID of the player
+     * @return the number of trades the player took part in
+     */
+    public int getEntryCount(UUID UUID) {
+        List<HistoryEntry> entries = playerIndex.get(UUID);
+
+        return entries == null ? 0 : entries.size();
+    }
+
+    /**
+     * Returns the UUID of a player who has traded by their name, without looking the player up
+     * @param name the name of the player, ignoring case
+     * @return the UUID the name last belonged to or null if no player with the name has traded
+     */
+    public UUID findPlayer(String name) {
+        return nameIndex.get(name.toLowerCase());
+    }
+
+    /**
+     * Returns the number of indexed trades
+     * @return the number of indexed trades
+     */
+    public int size() {
+        return timeIndex.size();
+    }
+
+    private void index(HistoryEntry entry) {
+        timeIndex.add(entry);
+        indexPlayer(entry.getTraderUUID(), entry.getTraderName(), entry);
+        indexPlayer(entry.getTradeeUUID(), entry.getTradeeName(), entry);
+    }
+
+    private void indexPlayer(UUID UUID, String name, HistoryEntry entry) {
+        List<HistoryEntry> entries = playerIndex.get(UUID);
+
+        if(entries == null) {
+            entries = new ArrayList<HistoryEntry>(4);
+            playerIndex.put(UUID, entries);
+        }
+
+        entries.add(entry);
+        nameIndex.put(name.toLowerCase(), UUID);
+    }
+
+    private void prune(long cutoff) {
+        int expired = 0;
+
+        // Entries are indexed oldest first, so expired entries are at the front of every list
+        while(expired < timeIndex.size() && timeIndex.get(expired).getSettledAt() < cutoff) {
+            HistoryEntry entry = timeIndex.get(expired);
+            removeOldest(entry.getTraderUUID(), entry);
+            removeOldest(entry.getTradeeUUID(), entry);
+            expired++;
+        }
+
+        timeIndex.subList(0, expired).clear();
+    }
+
+    private void removeOldest(UUID UUID, HistoryEntry entry) {
+        List<HistoryEntry> entries = playerIndex.get(UUID);
+
+        if(entries == null || entries.isEmpty() || entries.get(0) != entry) {return;}
+
+        entries.remove(0);
+
+        if(entries.isEmpty()) {
+            playerIndex.remove(UUID);
+        }
+    }
+
+    private long load(File segmentFile) throws IOException {
+        ByteBuffer buffer = read(segmentFile);
+        long validLength = 0;
+
+        while(buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int crcValue = buffer.getInt();
+
+            if(length <= 0 || length > buffer.remaining()) {break;}
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+
+            if((int) crc.getValue() != crcValue) {break;}
+
+            validLength = buffer.position();
+
+            ByteBuffer body = ByteBuffer.wrap(bytes);
+            long id = body.getLong();
+
+            // A compaction interrupted before removing its merged segments leaves copies of records that were already loaded
+            if(id < nextId) {continue;}
+
+            long openedAt = body.getLong();
+            long settledAt = body.getLong();
+            byte outcome = body.get();
+            UUID traderUUID = getUUID(body);
+            UUID tradeeUUID = getUUID(body);
+            String traderName = getString(body);
+            String tradeeName = getString(body);
+            int traderMoney = body.getInt();
+            int tradeeMoney = body.getInt();
+            int traderItemCount = body.getShort();
+            int tradeeItemCount = body.getShort();
+
+            // The items are left on disk
+            index(new HistoryEntry(id, openedAt, settledAt, outcome, traderUUID, traderName, tradeeUUID, tradeeName, traderMoney, tradeeMoney,
+                    traderItemCount, tradeeItemCount));
+            nextId = id + 1;
+        }
+
+        return validLength;
+    }
+
+    private void flush() {
+        List<byte[]> records = new ArrayList<byte[]>();
+        queue.drainTo(records);
+
+        if(records.isEmpty()) {return;}
+
+        try {
+            for(byte[] record: records) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                if(channel.size() >= SEGMENT_BYTES) {
+                    roll();
+                }
+            }
+
+            channel.force(false);
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Could not write to the trade history", ex);
+        }
+    }
+
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.close();
+
+        long segmentId = currentSegmentId() + 1;
+        segmentIds.add(segmentId);
+        channel = new RandomAccessFile(segmentFile(segmentId), "rw").getChannel();
+    }
+
+    private void compact() {
+        long retentionMillis = plugin.getTradeSettings().getHistoryRetentionMillis();
+        final long cutoff = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+
+        try {
+            // Sealed segments are merged in order into runs, each run is written over the first segment in it
+            List<Long> run = new ArrayList<Long>();
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            boolean changed = false;
+
+            for(long segmentId: new ArrayList<Long>(segmentIds.subList(0, segmentIds.size() - 1))) {
+                ByteBuffer buffer = read(segmentFile(segmentId));
+                ByteArrayOutputStream live = new ByteArrayOutputStream(buffer.remaining());
+                boolean expired = copyLive(buffer, cutoff, live);
+
+                if(!expired && buffer.limit() >= SEGMENT_BYTES / 2) {
+                    // Large and untouched, it stays as it is and ends the current run
+                    writeRun(run, merged, changed);
+                    run.clear();
+                    merged.reset();
+                    changed = false;
+                    continue;
+                }
+
+                if(!run.isEmpty() && merged.size() + live.size() > SEGMENT_BYTES) {
+                    writeRun(run, merged, changed);
+                    run.clear();
+                    merged.reset();
+                    changed = false;
+                }
+
+                run.add(segmentId);
+                live.writeTo(merged);
+                changed = changed || expired || run.size() > 1;
+            }
+
+            writeRun(run, merged, changed);
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.WARNING, "Could not compact the trade history", ex);
+        }
+
+        if(retentionMillis <= 0) {return;}
+
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                prune(cutoff);
+            }
+        });
+    }
+
+    private boolean copyLive(ByteBuffer buffer, long cutoff, ByteArrayOutputStream live) {
+        boolean expired = false;
+
+        while(buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+
+            if(length <= 0 || length > buffer.remaining() - 8) {break;}
+
+            if(buffer.getLong(start + 8 + SETTLED_AT_OFFSET) < cutoff) {
+                expired = true;
+            } else {
+                live.write(buffer.array(), start, 8 + length);
+            }
+
+            buffer.position(start + 8 + length);
+        }
+
+        return expired;
+    }
+
+    private void writeRun(List<Long> run, ByteArrayOutputStream merged, boolean changed) throws IOException {
+        if(run.isEmpty() || !changed) {return;}
+
+        long firstId = run.get(0);
+
+        if(merged.size() == 0) {
+            Files.deleteIfExists(segmentFile(firstId).toPath());
+        } else {
+            // Written beside the segment and swapped in so a crash here can not lose records
+            File compactFile = new File(directory, firstId + SEGMENT_SUFFIX + ".tmp");
+            FileChannel compactChannel = new RandomAccessFile(compactFile, "rw").getChannel();
+
+            try {
+                compactChannel.truncate(0);
+                ByteBuffer buffer = ByteBuffer.wrap(merged.toByteArray());
+
+                while(buffer.hasRemaining()) {
+                    compactChannel.write(buffer);
+                }
+
+                compactChannel.force(true);
+            } finally {
+                compactChannel.close();
+            }
+
+            Files.move(compactFile.toPath(), segmentFile(firstId).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        for(int i = 1; i < run.size(); i++) {
+            Files.deleteIfExists(segmentFile(run.get(i)).toPath());
+        }
+
+        segmentIds.removeAll(merged.size() == 0 ? run : run.subList(1, run.size()));
+    }
+
+    private long currentSegmentId() {
+        return segmentIds.get(segmentIds.size() - 1);
+    }
+
+    private File segmentFile(long segmentId) {
+        return new File(directory, String.format("%010d", segmentId) + SEGMENT_SUFFIX);
+    }
+
+    private ByteBuffer read(File segmentFile) throws IOException {
+        if(!segmentFile.exists()) {return ByteBuffer.allocate(0);}
+
+        FileChannel readChannel = new RandomAccessFile(segmentFile, "r").getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate((int) readChannel.size());
+
+        try {
+            while(buffer.hasRemaining() && readChannel.read(buffer) != -1) {
+                // Keep reading until the whole segment is in memory
+            }
+        } finally {
+            readChannel.close();
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private byte[] serialize(List<ItemStack> itemStacks) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            BukkitObjectOutputStream objectOutputStream = new BukkitObjectOutputStream(outputStream);
+            objectOutputStream.writeObject(itemStacks.toArray(new ItemStack[itemStacks.size()]));
+            objectOutputStream.close();
+
+            return outputStream.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not serialize items for the trade history", ex);
+        }
+    }
+
+    private static void putUUID(ByteBuffer buffer, UUID UUID) {
+        buffer.putLong(UUID.getMostSignificantBits()).putLong(UUID.getLeastSignificantBits());
+    }
+
+    private static UUID getUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
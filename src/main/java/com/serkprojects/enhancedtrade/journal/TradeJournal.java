@@ -0,0 +1,649 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.journal;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.iterator.TObjectDoubleIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of trade escrow state.
+ * Records are buffered in memory and written and synced to disk by a background thread in batches,
+ * so appending from the main thread never touches the disk. Each record is stored as its length, a CRC32 of its body
+ * and the body, a torn or corrupt tail is ignored when the journal is replayed.
+ */
+public class TradeJournal {
+    public static final byte SIDE_TRADER = 0;
+    public static final byte SIDE_TRADEE = 1;
+
+    public static final byte OUTCOME_CANCELLED = 0;
+    public static final byte OUTCOME_COMPLETED = 1;
+
+    private static final byte RECORD_OPEN = 1;
+    private static final byte RECORD_SLOT = 3;
+    private static final byte RECORD_SETTLED = 4;
+    private static final byte RECORD_PENDING_ITEMS = 5;
+    private static final byte RECORD_DELIVERED = 6;
+    private static final byte RECORD_MONEY_INTENT = 7;
+    private static final byte RECORD_MONEY_DONE = 8;
+    private static final byte RECORD_MONEY_OWED = 9;
+
+    private static final long SYNC_INTERVAL_MILLIS = 100;
+
+    private EnhancedTrade plugin = null;
+    private File file = null;
+    private FileChannel channel = null;
+
+    private ScheduledExecutorService writer = null;
+    private ByteArrayOutputStream pending = null;
+    private final Object pendingLock = new Object();
+
+    // Held while writing to the channel so a flush from another thread can not interleave with the writer
+    private final Object syncLock = new Object();
+
+    private long nextTradeId = 0;
+
+    // Items recovered from interrupted trades waiting for their owners to join
+    private THashMap<UUID, List<ItemStack>> pendingDeliveries = null;
+
+    // Money that could not be paid out, only used while replaying and compacting so it is paid on the next start
+    private TObjectDoubleHashMap<UUID> owedMoney = null;
+
+    /**
+     * Creates an instance of the trade journal
+     * @param plugin the plugin to run under
+     * @param file the file to journal to
+     */
+    public TradeJournal(EnhancedTrade plugin, File file) {
+        this.plugin = plugin;
+        this.file = file;
+
+        pending = new ByteArrayOutputStream(4096);
+        pendingDeliveries = new THashMap<UUID, List<ItemStack>>();
+        owedMoney = new TObjectDoubleHashMap<UUID>();
+    }
+
+    /**
+     * Replays the journal, refunding money and queueing items from interrupted trades, then compacts it and starts writing
+     * @throws IOException if the journal can not be read or written
+     */
+    public void open() throws IOException {
+        if(!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParentFile());
+        }
+
+        replay();
+        compact();
+
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EnhancedTrade Journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes everything still buffered and closes the journal
+     */
+    public void close() {
+        if(writer != null) {
+            writer.shutdown();
+
+            try {
+                writer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        sync();
+
+        try {
+            if(channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.WARNING, "Could not close the trade journal", ex);
+        }
+    }
+
+    /**
+     * Records that a trade has been opened
+     * @param traderUUID the UUID of the trader
+     * @param tradeeUUID the UUID of the tradee
+     * @return the journal id of the trade
+     */
+    public long recordOpen(UUID traderUUID, UUID tradeeUUID) {
+        long tradeId = nextTradeId++;
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 32);
+        body.put(RECORD_OPEN).putLong(tradeId);
+        putUUID(body, traderUUID);
+        putUUID(body, tradeeUUID);
+        append(body);
+
+        return tradeId;
+    }
+
+    /**
+     * Records a change to the money held in escrow that is about to be made, safe to call from any thread.
+     * The record has to be flushed before the economy is touched and followed by recordMoneyDone once it has been.
+     * @param transactionId the id of the economy transaction making the change
+     * @param tradeId the journal id of the trade
+     * @param side the side of the trade
+     * @param delta the change to the held money
+     */
+    public void recordMoneyIntent(long transactionId, long tradeId, byte side, double delta) {
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 8 + 1 + 8);
+        body.put(RECORD_MONEY_INTENT).putLong(transactionId).putLong(tradeId).put(side).putDouble(delta);
+        append(body);
+    }
+
+    /**
+     * Records that an economy transaction recorded with recordMoneyIntent has finished, safe to call from any thread
+     * @param transactionId the id of the economy transaction
+     * @param delta the change actually made to the held money, 0 if the economy refused it
+     */
+    public void recordMoneyDone(long transactionId, double delta) {
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 8);
+        body.put(RECORD_MONEY_DONE).putLong(transactionId).putDouble(delta);
+        append(body);
+    }
+
+    /**
+     * Records money that was taken out of escrow but could not be paid to its recipient, safe to call from any thread.
+     * The money is paid the next time the journal is replayed.
+     * @param tradeId the journal id of the trade the money was held for or -1 if it was not journaled
+     * @param side the side of the trade the money was held for
+     * @param UUID the UUID of the player the money is owed to
+     * @param amount the amount owed
+     */
+    public void recordMoneyOwed(long tradeId, byte side, UUID UUID, double amount) {
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 1 + 16 + 8);
+        body.put(RECORD_MONEY_OWED).putLong(tradeId).put(side);
+        putUUID(body, UUID);
+        body.putDouble(amount);
+        append(body);
+    }
+
+    /**
+     * Writes and syncs everything buffered so far before returning, safe to call from any thread
+     */
+    public void flush() {
+        sync();
+    }
+
+    /**
+     * Records the contents of a trade slot
+     * @param tradeId the journal id of the trade
+     * @param side the side of the trade the slot belongs to
+     * @param slot the slot
+     * @param itemStack the ItemStack in the slot or null if it is empty
+     */
+    public void recordSlot(long tradeId, byte side, int slot, ItemStack itemStack) {
+        byte[] item = itemStack == null ? new byte[0] : serialize(new ItemStack[] {itemStack});
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 1 + 2 + 4 + item.length);
+        body.put(RECORD_SLOT).putLong(tradeId).put(side).putShort((short) slot).putInt(item.length).put(item);
+        append(body);
+    }
+
+    /**
+     * Records that a trade has been settled and its items handed out
+     * @param tradeId the journal id of the trade
+     * @param outcome the outcome of the trade
+     */
+    public void recordSettled(long tradeId, byte outcome) {
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 1);
+        body.put(RECORD_SETTLED).putLong(tradeId).put(outcome);
+        append(body);
+    }
+
+    /**
+     * Records items owed to a player who could not be given them, they are handed out the next time the player joins
+     * @param UUID the UUID of the player
+     * @param itemStacks the items owed to the player
+     */
+    public void recordPendingDelivery(UUID UUID, ItemStack[] itemStacks) {
+        if(itemStacks.length == 0) {return;}
+
+        addPendingDelivery(UUID, itemStacks);
+
+        byte[] items = serialize(itemStacks);
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 16 + 4 + items.length);
+        body.put(RECORD_PENDING_ITEMS);
+        putUUID(body, UUID);
+        body.putInt(items.length).put(items);
+        append(body);
+    }
+
+    /**
+     * Takes the items recovered for a player out of the journal
+     * @param UUID the UUID of the player
+     * @return the recovered items or null if there are none
+     */
+    public List<ItemStack> takePendingDeliveries(UUID UUID) {
+        List<ItemStack> itemStacks = pendingDeliveries.remove(UUID);
+
+        if(itemStacks == null) {return null;}
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 16);
+        body.put(RECORD_DELIVERED);
+        putUUID(body, UUID);
+        append(body);
+
+        return itemStacks;
+    }
+
+    private void append(ByteBuffer body) {
+        byte[] bytes = body.array();
+        int length = body.position();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+
+        synchronized (pendingLock) {
+            writeInt(pending, length);
+            writeInt(pending, (int) crc.getValue());
+            pending.write(bytes, 0, length);
+        }
+    }
+
+    private void sync() {
+        synchronized (syncLock) {
+            try {
+                writePending(channel);
+            } catch (IOException ex) {
+                plugin.getLogger().log(Level.SEVERE, "Could not write to the trade journal", ex);
+            }
+        }
+    }
+
+    private void writePending(FileChannel target) throws IOException {
+        byte[] bytes;
+
+        synchronized (pendingLock) {
+            if(pending.size() == 0) {return;}
+
+            bytes = pending.toByteArray();
+            pending.reset();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        while(buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+
+        target.force(false);
+    }
+
+    private void replay() throws IOException {
+        if(!file.exists()) {return;}
+
+        FileChannel readChannel = new RandomAccessFile(file, "r").getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate((int) readChannel.size());
+
+        try {
+            while(buffer.hasRemaining() && readChannel.read(buffer) != -1) {
+                // Keep reading until the whole journal is in memory
+            }
+        } finally {
+            readChannel.close();
+        }
+
+        buffer.flip();
+
+        TLongObjectHashMap<JournaledTrade> trades = new TLongObjectHashMap<JournaledTrade>();
+        TLongObjectHashMap<MoneyIntent> intents = new TLongObjectHashMap<MoneyIntent>();
+        long maxTradeId = -1;
+
+        while(buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int crcValue = buffer.getInt();
+
+            if(length <= 0 || length > buffer.remaining()) {break;}
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+
+            if((int) crc.getValue() != crcValue) {break;}
+
+            ByteBuffer body = ByteBuffer.wrap(bytes);
+            byte type = body.get();
+
+            switch (type) {
+                case RECORD_OPEN: {
+                    long tradeId = body.getLong();
+                    trades.put(tradeId, new JournaledTrade(getUUID(body), getUUID(body)));
+                    maxTradeId = Math.max(maxTradeId, tradeId);
+                    break;
+                }
+                case RECORD_MONEY_INTENT: {
+                    long transactionId = body.getLong();
+                    JournaledTrade trade = trades.get(body.getLong());
+                    byte side = body.get();
+                    double delta = body.getDouble();
+
+                    if(trade != null) {
+                        intents.put(transactionId, new MoneyIntent(trade, side, delta));
+                    }
+                    break;
+                }
+                case RECORD_MONEY_DONE: {
+                    MoneyIntent intent = intents.remove(body.getLong());
+                    double delta = body.getDouble();
+
+                    if(intent != null) {
+                        intent.trade.held[intent.side] += delta;
+                    }
+                    break;
+                }
+                case RECORD_MONEY_OWED: {
+                    JournaledTrade trade = trades.get(body.getLong());
+                    byte side = body.get();
+                    UUID owner = getUUID(body);
+                    double amount = body.getDouble();
+
+                    // The money left the escrow when the payout failed, so it is only owed once
+                    if(trade != null) {
+                        trade.held[side] -= amount;
+                    }
+
+                    owedMoney.adjustOrPutValue(owner, amount, amount);
+                    break;
+                }
+                case RECORD_SLOT: {
+                    JournaledTrade trade = trades.get(body.getLong());
+                    byte side = body.get();
+                    int slot = body.getShort();
+                    byte[] item = new byte[body.getInt()];
+                    body.get(item);
+
+                    if(trade != null) {
+                        trade.slots[side].put(slot, item.length == 0 ? null : deserialize(item)[0]);
+                    }
+                    break;
+                }
+                case RECORD_SETTLED: {
+                    JournaledTrade trade = trades.get(body.getLong());
+
+                    if(trade != null) {
+                        trade.settled = true;
+                        trade.outcome = body.get();
+                    }
+                    break;
+                }
+                case RECORD_PENDING_ITEMS: {
+                    UUID owner = getUUID(body);
+                    byte[] items = new byte[body.getInt()];
+                    body.get(items);
+                    addPendingDelivery(owner, deserialize(items));
+                    break;
+                }
+                case RECORD_DELIVERED: {
+                    pendingDeliveries.remove(getUUID(body));
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        nextTradeId = Math.max(maxTradeId + 1, System.currentTimeMillis());
+
+        // The journal stopped between an intent and its outcome, so whether the economy call happened is unknown.
+        // Treating it as done means an interrupted withdrawal is refunded and an interrupted payout is not paid twice.
+        for(MoneyIntent intent: intents.valueCollection()) {
+            plugin.getLogger().warning("Assuming an interrupted trade money change of " + intent.delta + " was applied");
+            intent.trade.held[intent.side] += intent.delta;
+        }
+
+        for(TObjectDoubleIterator<UUID> iterator = owedMoney.iterator(); iterator.hasNext();) {
+            iterator.advance();
+
+            if(pay(iterator.key(), iterator.value(), "a trade payout that failed")) {
+                iterator.remove();
+            }
+        }
+
+        for(JournaledTrade trade: trades.valueCollection()) {
+            recover(trade);
+        }
+    }
+
+    private void recover(JournaledTrade trade) {
+        // Completed trades pay each side's escrow to the other side, anything else is refunded
+        boolean completed = trade.settled && trade.outcome == OUTCOME_COMPLETED;
+
+        payOrOwe(completed ? trade.tradeeUUID : trade.traderUUID, trade.held[SIDE_TRADER]);
+        payOrOwe(completed ? trade.traderUUID : trade.tradeeUUID, trade.held[SIDE_TRADEE]);
+
+        if(trade.settled) {return;}
+
+        // Items still in the trade go back to the side that offered them
+        addPendingDelivery(trade.traderUUID, trade.getItems(SIDE_TRADER));
+        addPendingDelivery(trade.tradeeUUID, trade.getItems(SIDE_TRADEE));
+    }
+
+    private void payOrOwe(UUID UUID, double amount) {
+        if(pay(UUID, amount, "an interrupted trade")) {return;}
+
+        // Kept through the compaction so the payment is tried again on the next start
+        owedMoney.adjustOrPutValue(UUID, amount, amount);
+    }
+
+    private boolean pay(UUID UUID, double amount, String source) {
+        if(amount <= 0) {return true;}
+
+        if(plugin.getEconomy() == null) {
+            plugin.getLogger().warning("Could not pay " + amount + " to " + UUID + " from " + source + ", no economy is available");
+            return false;
+        }
+
+        EconomyResponse response = plugin.getEconomy().depositPlayer(plugin.getServer().getOfflinePlayer(UUID), amount);
+
+        if(response == null || !response.transactionSuccess()) {
+            plugin.getLogger().warning("Could not pay " + amount + " to " + UUID + " from " + source + ", it will be tried again on the next start");
+            return false;
+        }
+
+        plugin.getLogger().info("Paid " + amount + " to " + UUID + " from " + source);
+        return true;
+    }
+
+    private void addPendingDelivery(UUID owner, ItemStack[] itemStacks) {
+        if(itemStacks.length == 0) {return;}
+
+        List<ItemStack> itemStackList = pendingDeliveries.get(owner);
+
+        if(itemStackList == null) {
+            itemStackList = new ArrayList<ItemStack>();
+            pendingDeliveries.put(owner, itemStackList);
+        }
+
+        for(ItemStack itemStack: itemStacks) {
+            itemStackList.add(itemStack);
+        }
+    }
+
+    private void compact() throws IOException {
+        // Write the compacted journal beside the old one and swap it in so a crash here can not lose the old journal
+        File compactFile = new File(file.getPath() + ".tmp");
+        FileChannel compactChannel = new RandomAccessFile(compactFile, "rw").getChannel();
+
+        try {
+            compactChannel.truncate(0);
+
+            for(UUID owner: pendingDeliveries.keySet()) {
+                List<ItemStack> itemStacks = pendingDeliveries.get(owner);
+                byte[] items = serialize(itemStacks.toArray(new ItemStack[itemStacks.size()]));
+
+                ByteBuffer body = ByteBuffer.allocate(1 + 16 + 4 + items.length);
+                body.put(RECORD_PENDING_ITEMS);
+                putUUID(body, owner);
+                body.putInt(items.length).put(items);
+                append(body);
+            }
+
+            for(TObjectDoubleIterator<UUID> iterator = owedMoney.iterator(); iterator.hasNext();) {
+                iterator.advance();
+                recordMoneyOwed(-1, SIDE_TRADER, iterator.key(), iterator.value());
+            }
+
+            owedMoney.clear();
+
+            writePending(compactChannel);
+            compactChannel.force(true);
+        } finally {
+            compactChannel.close();
+        }
+
+        Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Only journaled to once the compacted file has replaced the old one
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+    }
+
+    private byte[] serialize(ItemStack[] itemStacks) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            BukkitObjectOutputStream objectOutputStream = new BukkitObjectOutputStream(outputStream);
+            objectOutputStream.writeObject(itemStacks);
+            objectOutputStream.close();
+
+            return outputStream.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not serialize items for the trade journal", ex);
+        }
+    }
+
+    private ItemStack[] deserialize(byte[] bytes) {
+        try {
+            BukkitObjectInputStream objectInputStream = new BukkitObjectInputStream(new ByteArrayInputStream(bytes));
+            ItemStack[] itemStacks = (ItemStack[]) objectInputStream.readObject();
+            objectInputStream.close();
+
+            return itemStacks;
+        } catch (IOException | ClassNotFoundException ex) {
+            plugin.getLogger().log(Level.WARNING, "Could not read items from the trade journal", ex);
+            return new ItemStack[0];
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream outputStream, int value) {
+        outputStream.write(value >>> 24);
+        outputStream.write(value >>> 16);
+        outputStream.write(value >>> 8);
+        outputStream.write(value);
+    }
+
+    private static void putUUID(ByteBuffer buffer, UUID UUID) {
+        buffer.putLong(UUID.getMostSignificantBits()).putLong(UUID.getLeastSignificantBits());
+    }
+
+    private static UUID getUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static class MoneyIntent {
+        private JournaledTrade trade = null;
+        private byte side = 0;
+        private double delta = 0;
+
+        private MoneyIntent(JournaledTrade trade, byte side, double delta) {
+            this.trade = trade;
+            this.side = side;
+            this.delta = delta;
+        }
+    }
+
+    private static class JournaledTrade {
+        private UUID traderUUID = null;
+        private UUID tradeeUUID = null;
+        private double[] held = new double[2];
+        @SuppressWarnings("unchecked")
+        private TIntObjectHashMap<ItemStack>[] slots = new TIntObjectHashMap[] {new TIntObjectHashMap<ItemStack>(), new TIntObjectHashMap<ItemStack>()};
+        private boolean settled = false;
+        private byte outcome = OUTCOME_CANCELLED;
+
+        private JournaledTrade(UUID traderUUID, UUID tradeeUUID) {
+            this.traderUUID = traderUUID;
+            this.tradeeUUID = tradeeUUID;
+        }
+
+        private ItemStack[] getItems(byte side) {
+            List<ItemStack> itemStacks = new ArrayList<ItemStack>();
+
+            for(ItemStack itemStack: slots[side].valueCollection()) {
+                if(itemStack != null) {
+                    itemStacks.add(itemStack);
+                }
+            }
+
+            return itemStacks.toArray(new ItemStack[itemStacks.size()]);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.listeners;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.ItemDespawnEvent;
+import org.bukkit.event.player.PlayerPickupItemEvent;
+
+import java.util.UUID;
+
+public class ItemListener implements Listener {
+    private EnhancedTrade plugin = null;
+
+    /**
+     * Creates an instance of the item listener
+     * @param plugin the plugin to pull protected drops from
+     */
+    public ItemListener(EnhancedTrade plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void playerPickItem(PlayerPickupItemEvent e) {
+        int entityId = e.getItem().getEntityId();
+        UUID ownerUUID = plugin.getProtectedDrops().getOwner(entityId);
+
+        if(ownerUUID == null) {return;}
+
+        if(!ownerUUID.equals(e.getPlayer().getUniqueId())) {
+            e.setCancelled(true);
+            return;
+        }
+
+        // Part of the stack stays on the ground if the owner's inventory could not take all of it
+        if(e.getRemaining() == 0) {
+            plugin.getProtectedDrops().remove(entityId);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void itemDespawn(ItemDespawnEvent e) {
+        plugin.getProtectedDrops().remove(e.getEntity().getEntityId());
+    }
+}
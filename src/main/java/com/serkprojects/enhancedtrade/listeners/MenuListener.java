@@ -24,15 +24,23 @@
 package com.serkprojects.enhancedtrade.listeners;
 
 import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.journal.TradeJournal;
+import com.serkprojects.enhancedtrade.menu.SlotRole;
 import com.serkprojects.enhancedtrade.menu.TradeMenu;
-import org.bukkit.ChatColor;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.ClickType;
 import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryInteractEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.ItemStack;
 
 public class MenuListener implements Listener {
     private EnhancedTrade plugin = null;
@@ -45,32 +53,57 @@ public class MenuListener implements Listener {
         this.plugin = plugin;
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void inventoryOpen(InventoryOpenEvent e) {
+        if(e.getPlayer() == null || e.getInventory() == null) {return;}
+
+        if(e.getInventory().getHolder() instanceof TradeMenu) {
+            plugin.getViewerRegistry().open(e.getPlayer().getUniqueId(), (TradeMenu) e.getInventory().getHolder());
+        } else {
+            plugin.getViewerRegistry().close(e.getPlayer().getUniqueId());
+        }
+    }
+
+    @EventHandler
+    public void inventoryClose(InventoryCloseEvent e) {
+        if(e.getPlayer() == null) {return;}
+
+        plugin.getViewerRegistry().close(e.getPlayer().getUniqueId());
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void inventoryClick(InventoryClickEvent e) {
-        if(e.getInventory() == null || e.getInventory().getType() != InventoryType.CHEST || e.getWhoClicked() == null || !(e.getWhoClicked() instanceof Player)) {return;}
-        if(e.getInventory().getTitle() == null || e.getInventory().getTitle().trim().equalsIgnoreCase("")) {return;}
+        // Almost every click comes from someone not viewing a trade, so they are turned away with one lookup and a holder check
+        TradeMenu tradeMenu = getViewedTrade(e);
 
-        String menuTitle = ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString("settings.trade.interface.name"));
+        if(tradeMenu == null) {return;}
 
-        if(!e.getInventory().getTitle().equalsIgnoreCase(menuTitle)) {return;}
-
-        TradeMenu currentTradeMenu = null;
+        long start = System.nanoTime();
+        tradeMenuClick(e, tradeMenu);
+        plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.INVENTORY_CLICK, start);
+    }
 
-        for(TradeMenu tradeMenu: plugin.getActiveTrades()) {
-            if(tradeMenu.getTraderUUID() != null && tradeMenu.getTraderUUID().equals(e.getWhoClicked().getUniqueId()) || tradeMenu.getTradeeUUID() != null && tradeMenu.getTradeeUUID().equals(e.getWhoClicked().getUniqueId())) {
-                currentTradeMenu = tradeMenu;
-                break;
-            }
+    private void tradeMenuClick(InventoryClickEvent e, TradeMenu currentTradeMenu) {
+        // Block changes from anyone not in the trade or to a trade that has already been settled
+        if(plugin.getTradeRegistry().getTrade(e.getWhoClicked().getUniqueId()) != currentTradeMenu) {
+            e.setCancelled(true);
+            return;
         }
 
-        if(currentTradeMenu == null) {return;}
+        // Nothing may move while the trade waits for its money to settle
+        if(currentTradeMenu.getState().isSettled()) {
+            e.setCancelled(true);
+            return;
+        }
 
         if(e.getSlotType() == InventoryType.SlotType.OUTSIDE || e.getClick() == ClickType.DOUBLE_CLICK) {
             e.setCancelled(true);
             return;
         }
 
-        if(currentTradeMenu.isReservedSlot(e.getRawSlot())) {
+        SlotRole slotRole = currentTradeMenu.getSlotRole(e.getRawSlot());
+
+        if(slotRole.isReserved()) {
             e.setCancelled(true);
 
             if(e.getCursor() != null) {
@@ -80,47 +113,66 @@ public class MenuListener implements Listener {
             return;
         }
 
-        if(currentTradeMenu.isTradeComplete()) {
-            e.setCancelled(true);
-            return;
-        }
-
         if(e.isShiftClick()) {
             e.setCancelled(true);
             return;
         }
 
-        if(currentTradeMenu.isTraderSlot(e.getRawSlot())) {
+        if(slotRole == SlotRole.TRADER) {
             if(currentTradeMenu.getTraderUUID() == null || !currentTradeMenu.getTraderUUID().equals(e.getWhoClicked().getUniqueId())) {
                 e.setCancelled(true);
+                return;
+            }
+
+            if(changesSlot(e)) {
+                currentTradeMenu.markItemsChanged(TradeJournal.SIDE_TRADER);
             }
-        } else if(currentTradeMenu.isTradeeSlot(e.getRawSlot())) {
+        } else if(slotRole == SlotRole.TRADEE) {
             if (currentTradeMenu.getTradeeUUID() == null || !currentTradeMenu.getTradeeUUID().equals(e.getWhoClicked().getUniqueId())) {
                 e.setCancelled(true);
+                return;
+            }
+
+            if(changesSlot(e)) {
+                currentTradeMenu.markItemsChanged(TradeJournal.SIDE_TRADEE);
             }
         }
     }
 
+    private static boolean changesSlot(InventoryClickEvent e) {
+        // Number keys swap with the hotbar, so they can fill an empty slot without a cursor
+        if(e.getClick() == ClickType.NUMBER_KEY) {return true;}
+
+        return !isEmpty(e.getCurrentItem()) || !isEmpty(e.getCursor());
+    }
+
+    private static boolean isEmpty(ItemStack itemStack) {
+        return itemStack == null || itemStack.getType() == Material.AIR;
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void inventoryDrag(InventoryDragEvent e) {
-        if(e.getInventory() == null || e.getInventory().getType() != InventoryType.CHEST || e.getWhoClicked() == null || !(e.getWhoClicked() instanceof Player)) {return;}
-        if(e.getInventory().getTitle() == null || e.getInventory().getTitle().trim().equalsIgnoreCase("")) {return;}
+        if(getViewedTrade(e) == null) {return;}
+
+        e.setCancelled(true);
+    }
 
-        String menuTitle = ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString("settings.trade.interface.name"));
+    private TradeMenu getViewedTrade(InventoryInteractEvent e) {
+        if(e.getWhoClicked() == null || e.getInventory() == null) {return null;}
 
-        if(!e.getInventory().getTitle().equalsIgnoreCase(menuTitle)) {return;}
+        TradeMenu tradeMenu = plugin.getViewerRegistry().getViewing(e.getWhoClicked().getUniqueId());
 
-        TradeMenu currentTradeMenu = null;
+        if(tradeMenu == null || e.getInventory().getHolder() != tradeMenu) {
+            // The registry should always know who is viewing a trade, but a missed open must not let clicks through unpoliced
+            if(!(e.getInventory().getHolder() instanceof TradeMenu)) {return null;}
 
-        for(TradeMenu tradeMenu: plugin.getActiveTrades()) {
-            if(tradeMenu.getTraderUUID() != null && tradeMenu.getTraderUUID().equals(e.getWhoClicked().getUniqueId()) || tradeMenu.getTradeeUUID() != null && tradeMenu.getTradeeUUID().equals(e.getWhoClicked().getUniqueId())) {
-                currentTradeMenu = tradeMenu;
-                break;
-            }
+            tradeMenu = (TradeMenu) e.getInventory().getHolder();
+            plugin.getLogger().warning(e.getWhoClicked().getName() + " interacted with a trade menu the viewer registry did not have them viewing");
+            plugin.getViewerRegistry().open(e.getWhoClicked().getUniqueId(), tradeMenu);
         }
 
-        if(currentTradeMenu == null) {return;}
+        if(!(e.getWhoClicked() instanceof Player)) {return null;}
 
-        e.setCancelled(true);
+        return tradeMenu;
     }
 }
@@ -25,12 +25,14 @@ package com.serkprojects.enhancedtrade.listeners;
 
 import com.serkprojects.enhancedtrade.EnhancedTrade;
 import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.text.Message;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerKickEvent;
-import org.bukkit.event.player.PlayerPickupItemEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
-import org.bukkit.metadata.MetadataValue;
+import org.bukkit.inventory.ItemStack;
 
 import java.util.List;
 import java.util.UUID;
@@ -46,66 +48,52 @@ public class PlayerListener implements Listener {
         this.plugin = plugin;
     }
 
-    @EventHandler(ignoreCancelled = true)
-    public void playerQuit(PlayerQuitEvent e) {
-        if(e.getPlayer() == null) {return;}
+    @EventHandler
+    public void playerJoin(PlayerJoinEvent e) {
+        if(e.getPlayer() == null || plugin.getTradeJournal() == null) {return;}
 
-        if(!plugin.isTrading(e.getPlayer().getUniqueId(), false)) {return;}
+        List<ItemStack> itemStacks = plugin.getTradeJournal().takePendingDeliveries(e.getPlayer().getUniqueId());
 
-        TradeMenu currentTradeMenu = null;
+        if(itemStacks == null) {return;}
 
-        for(TradeMenu tradeMenu: plugin.getActiveTrades()) {
-            if(tradeMenu.getTraderUUID() != null && tradeMenu.getTraderUUID().equals(e.getPlayer().getUniqueId()) || tradeMenu.getTradeeUUID() != null && tradeMenu.getTradeeUUID().equals(e.getPlayer().getUniqueId())) {
-                currentTradeMenu = tradeMenu;
-            }
-        }
+        plugin.getItemTransfer().give(e.getPlayer(), itemStacks);
+        plugin.getMessageCatalogue().send(e.getPlayer(), Message.TRADE_ITEMS_RECOVERED);
+    }
 
-        if(currentTradeMenu == null) {return;}
+    @EventHandler(ignoreCancelled = true)
+    public void playerQuit(PlayerQuitEvent e) {
+        if(e.getPlayer() == null) {return;}
 
-        if(currentTradeMenu.isAwaitingAcceptance()) {
-            currentTradeMenu.denyTrade();
-        } else {
-            currentTradeMenu.cancelTrade();
-        }
+        long start = System.nanoTime();
+        endTrades(e.getPlayer().getUniqueId());
+        plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.PLAYER_QUIT, start);
     }
 
     @EventHandler(ignoreCancelled = true)
     public void playerKick(PlayerKickEvent e) {
         if(e.getPlayer() == null) {return;}
-        if(!plugin.isTrading(e.getPlayer().getUniqueId(), false)) {return;}
 
-        TradeMenu currentTradeMenu = null;
-
-        for(TradeMenu tradeMenu: plugin.getActiveTrades()) {
-            if(tradeMenu.getTraderUUID() != null && tradeMenu.getTraderUUID().equals(e.getPlayer().getUniqueId()) || tradeMenu.getTradeeUUID() != null && tradeMenu.getTradeeUUID().equals(e.getPlayer().getUniqueId())) {
-                currentTradeMenu = tradeMenu;
-            }
-        }
-
-        if(currentTradeMenu == null) {return;}
-
-        if(currentTradeMenu.isAwaitingAcceptance()) {
-            currentTradeMenu.denyTrade();
-        } else {
-            currentTradeMenu.cancelTrade();
-        }
+        long start = System.nanoTime();
+        endTrades(e.getPlayer().getUniqueId());
+        plugin.getTradeMetrics().recordSince(TradeMetrics.Handler.PLAYER_KICK, start);
     }
 
-    @EventHandler(ignoreCancelled = true)
-    public void playerPickItem(PlayerPickupItemEvent e) {
-        if(e.getItem() == null || e.getPlayer() == null) {return;}
-        if(!e.getItem().hasMetadata("p-protected")) {return;}
+    private void endTrades(UUID UUID) {
+        // The close event should already have done this, but a stale entry would outlive the player
+        plugin.getViewerRegistry().close(UUID);
+        plugin.getRequestRateLimiter().forgetIfFull(UUID, System.currentTimeMillis());
 
-        List<MetadataValue> metadataValues = e.getItem().getMetadata("p-protected");
+        if(!plugin.isTrading(UUID, false)) {return;}
 
-        UUID ownerUUID = null;
+        TradeMenu currentTradeMenu = plugin.getTradeRegistry().getTrade(UUID);
 
-        for(MetadataValue metadataValue: metadataValues) {
-            ownerUUID = UUID.fromString(metadataValue.asString());
-        }
+        if(currentTradeMenu != null) {
+            currentTradeMenu.cancelTrade();
 
-        if(!e.getPlayer().getUniqueId().equals(ownerUUID)) {
-            e.setCancelled(true);
+            // The player is still online while their quit is handled and cancelling resolves them, so drop them afterwards
+            currentTradeMenu.invalidatePlayer(UUID);
         }
+
+        plugin.getRequestInbox().withdrawAll(UUID);
     }
 }
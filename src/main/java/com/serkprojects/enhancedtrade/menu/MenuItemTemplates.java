@@ -0,0 +1,222 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.menu;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.settings.TradeSettings;
+import com.serkprojects.enhancedtrade.text.CurrencyFormatter;
+import com.serkprojects.enhancedtrade.text.Template;
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.material.Wool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MenuItemTemplates {
+    private EnhancedTrade plugin = null;
+    private TradeSettings tradeSettings = null;
+
+    private String menuTitle = null;
+
+    // Readiness names keep their {name} token, it is the only per-player part of a menu
+    private Template traderReadinessName = null;
+    private Template tradeeReadinessName = null;
+
+    private ItemStack traderReadinessStack = null;
+    private ItemStack tradeeReadinessStack = null;
+    private ItemStack tradeInfoStack = null;
+    private ItemStack remindPlayerStack = null;
+    private ItemStack addOneCurrencyStack = null;
+    private ItemStack removeOneCurrencyStack = null;
+    private ItemStack addTenCurrencyStack = null;
+    private ItemStack removeTenCurrencyStack = null;
+    private ItemStack cancelTradeStack = null;
+    private ItemStack previousPageStack = null;
+    private ItemStack nextPageStack = null;
+
+    /**
+     * Creates an instance of the menu item templates, compiling every entry from a settings snapshot
+     * @param plugin the plugin to pull the currency formatter from
+     * @param tradeSettings the settings to compile entries from
+     */
+    public MenuItemTemplates(EnhancedTrade plugin, TradeSettings tradeSettings) {
+        this.plugin = plugin;
+        this.tradeSettings = tradeSettings;
+
+        menuTitle = tradeSettings.getMenuTitle();
+
+        traderReadinessName = Template.compile(tradeSettings.getEntryName("toggleReadinessTrader"));
+        tradeeReadinessName = Template.compile(tradeSettings.getEntryName("toggleReadinessTradee"));
+
+        traderReadinessStack = compile(newWoolStack(DyeColor.RED), "toggleReadinessTrader");
+        tradeeReadinessStack = compile(newWoolStack(DyeColor.RED), "toggleReadinessTradee");
+        tradeInfoStack = compile(new ItemStack(Material.SIGN), "tradeInfo");
+        remindPlayerStack = compile(new ItemStack(Material.PAPER), "remindPlayer");
+        addOneCurrencyStack = compile(new ItemStack(Material.GOLD_NUGGET), "addOneCurrency");
+        removeOneCurrencyStack = compile(new ItemStack(Material.GHAST_TEAR), "removeOneCurrency");
+        addTenCurrencyStack = compile(new ItemStack(Material.GOLD_INGOT), "addTenCurrency");
+        removeTenCurrencyStack = compile(new ItemStack(Material.IRON_INGOT), "removeTenCurrency");
+        cancelTradeStack = compile(new ItemStack(Material.BARRIER), "cancelTrade");
+        previousPageStack = compile(new ItemStack(Material.ARROW), "previousPage");
+        nextPageStack = compile(new ItemStack(Material.ARROW), "nextPage");
+    }
+
+    /**
+     * Returns the colored title used for trade menus
+     * @return the colored title used for trade menus
+     */
+    public String getMenuTitle() {
+        return menuTitle;
+    }
+
+    /**
+     * Returns a new trader readiness ItemStack
+     * @param name the name of the trader
+     * @return a new trader readiness ItemStack
+     */
+    public ItemStack getTraderReadinessStack(String name) {
+        return withName(traderReadinessStack, traderReadinessName, name);
+    }
+
+    /**
+     * Returns a new tradee readiness ItemStack
+     * @param name the name of the tradee
+     * @return a new tradee readiness ItemStack
+     */
+    public ItemStack getTradeeReadinessStack(String name) {
+        return withName(tradeeReadinessStack, tradeeReadinessName, name);
+    }
+
+    /**
+     * Returns a new trade info ItemStack without any lore
+     * @return a new trade info ItemStack without any lore
+     */
+    public ItemStack getTradeInfoStack() {
+        return tradeInfoStack.clone();
+    }
+
+    /**
+     * Returns a new remind player ItemStack
+     * @return a new remind player ItemStack
+     */
+    public ItemStack getRemindPlayerStack() {
+        return remindPlayerStack.clone();
+    }
+
+    /**
+     * Returns a new add one currency ItemStack
+     * @return a new add one currency ItemStack
+     */
+    public ItemStack getAddOneCurrencyStack() {
+        return addOneCurrencyStack.clone();
+    }
+
+    /**
+     * Returns a new remove one currency ItemStack
+     * @return a new remove one currency ItemStack
+     */
+    public ItemStack getRemoveOneCurrencyStack() {
+        return removeOneCurrencyStack.clone();
+    }
+
+    /**
+     * Returns a new add ten currency ItemStack
+     * @return a new add ten currency ItemStack
+     */
+    public ItemStack getAddTenCurrencyStack() {
+        return addTenCurrencyStack.clone();
+    }
+
+    /**
+     * Returns a new remove ten currency ItemStack
+     * @return a new remove ten currency ItemStack
+     */
+    public ItemStack getRemoveTenCurrencyStack() {
+        return removeTenCurrencyStack.clone();
+    }
+
+    /**
+     * Returns a new cancel trade ItemStack
+     * @return a new cancel trade ItemStack
+     */
+    public ItemStack getCancelTradeStack() {
+        return cancelTradeStack.clone();
+    }
+
+    /**
+     * Returns a new previous page ItemStack
+     * @return a new previous page ItemStack
+     */
+    public ItemStack getPreviousPageStack() {
+        return previousPageStack.clone();
+    }
+
+    /**
+     * Returns a new next page ItemStack
+     * @return a new next page ItemStack
+     */
+    public ItemStack getNextPageStack() {
+        return nextPageStack.clone();
+    }
+
+    private ItemStack compile(ItemStack itemStack, String entry) {
+        ItemMeta itemMeta = itemStack.getItemMeta();
+
+        CurrencyFormatter currencyFormatter = plugin.getCurrencyFormatter();
+
+        itemMeta.setDisplayName(Template.compile(tradeSettings.getEntryName(entry)).render(currencyFormatter));
+
+        List<String> loreList = new ArrayList<String>();
+
+        for(String loreString: tradeSettings.getEntryLore(entry)) {
+            loreList.add(Template.compile(loreString).render(currencyFormatter));
+        }
+
+        if(!loreList.isEmpty()) {
+            itemMeta.setLore(loreList);
+        }
+
+        itemStack.setItemMeta(itemMeta);
+        return itemStack;
+    }
+
+    private ItemStack withName(ItemStack prototype, Template nameTemplate, String name) {
+        ItemStack itemStack = prototype.clone();
+        ItemMeta itemMeta = itemStack.getItemMeta();
+        itemMeta.setDisplayName(nameTemplate.render(plugin.getCurrencyFormatter(), name, 0));
+        itemStack.setItemMeta(itemMeta);
+
+        return itemStack;
+    }
+
+    private ItemStack newWoolStack(DyeColor dyeColor) {
+        Wool wool = new Wool();
+        wool.setColor(dyeColor);
+
+        return wool.toItemStack(1);
+    }
+}
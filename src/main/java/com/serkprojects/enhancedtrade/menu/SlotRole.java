@@ -0,0 +1,101 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.menu;
+
+/**
+ * What a slot in a trade menu is used for.
+ * Buttons come first so their ordinal doubles as their index in a menu's staged items.
+ */
+public enum SlotRole {
+    TRADER_READINESS('r'),
+    TRADEE_READINESS('R'),
+    TRADE_INFO('i'),
+    REMIND_PLAYER('p'),
+    ADD_ONE_CURRENCY('a'),
+    REMOVE_ONE_CURRENCY('d'),
+    ADD_TEN_CURRENCY('A'),
+    REMOVE_TEN_CURRENCY('D'),
+    CANCEL_TRADE('c'),
+    PREVIOUS_PAGE('<'),
+    NEXT_PAGE('>'),
+    TRADER('T'),
+    TRADEE('E'),
+    FILLER('#'),
+    OUTSIDE('\0');
+
+    public static final int BUTTON_COUNT = NEXT_PAGE.ordinal() + 1;
+
+    private char symbol = '\0';
+
+    SlotRole(char symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * Returns the character used for the role in configured layouts
+     * @return the character used for the role in configured layouts
+     */
+    public char getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns if the role is a menu button
+     * @return if the role is a menu button
+     */
+    public boolean isButton() {
+        return ordinal() < BUTTON_COUNT;
+    }
+
+    /**
+     * Returns if a layout has to include the role, page buttons are only needed for multi-page trades
+     * @return if a layout has to include the role
+     */
+    public boolean isRequired() {
+        return ordinal() <= CANCEL_TRADE.ordinal() || this == TRADER || this == TRADEE;
+    }
+
+    /**
+     * Returns if the role is a slot players can not put items in
+     * @return if the role is a slot players can not put items in
+     */
+    public boolean isReserved() {
+        return isButton() || this == FILLER;
+    }
+
+    /**
+     * Returns the role for a layout character
+     * @param symbol the layout character
+     * @return the role for the character or null if no role uses it
+     */
+    public static SlotRole fromSymbol(char symbol) {
+        for(SlotRole slotRole: values()) {
+            if(slotRole != OUTSIDE && slotRole.symbol == symbol) {
+                return slotRole;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.menu;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A trade menu layout with the role of every slot worked out up front, so routing a click is a single array lookup
+ */
+public class TradeLayout {
+    private static final int ROW_SIZE = 9;
+    private static final int MAX_ROWS = 6;
+
+    /**
+     * The layout used when none is configured
+     */
+    public static final List<String> DEFAULT_ROWS = Arrays.asList("TTTTTTTTT", "TTTTTTTTT", "rRipadADc", "EEEEEEEEE", "EEEEEEEEE");
+
+    private SlotRole[] roles = null;
+    private int[] buttonSlots = null;
+    private int[] traderSlots = null;
+    private int[] tradeeSlots = null;
+
+    /**
+     * Creates an instance of a trade layout
+     * @param rows the rows of the layout, one character per slot
+     * @throws IllegalArgumentException if the layout is not a valid trade menu
+     */
+    public TradeLayout(List<String> rows) {
+        if(rows == null || rows.isEmpty() || rows.size() > MAX_ROWS) {
+            throw new IllegalArgumentException("must have between 1 and " + MAX_ROWS + " rows");
+        }
+
+        roles = new SlotRole[rows.size() * ROW_SIZE];
+        buttonSlots = new int[SlotRole.BUTTON_COUNT];
+        Arrays.fill(buttonSlots, -1);
+
+        int traderCount = 0;
+        int tradeeCount = 0;
+
+        for(int row = 0; row < rows.size(); row++) {
+            String rowString = rows.get(row);
+
+            if(rowString == null || rowString.length() != ROW_SIZE) {
+                throw new IllegalArgumentException("row " + (row + 1) + " must be exactly " + ROW_SIZE + " characters");
+            }
+
+            for(int column = 0; column < ROW_SIZE; column++) {
+                int slot = row * ROW_SIZE + column;
+                SlotRole slotRole = SlotRole.fromSymbol(rowString.charAt(column));
+
+                if(slotRole == null) {
+                    throw new IllegalArgumentException("row " + (row + 1) + " has an unknown slot character '" + rowString.charAt(column) + "'");
+                }
+
+                if(slotRole.isButton()) {
+                    if(buttonSlots[slotRole.ordinal()] != -1) {
+                        throw new IllegalArgumentException("'" + slotRole.getSymbol() + "' may only be used once");
+                    }
+
+                    buttonSlots[slotRole.ordinal()] = slot;
+                } else if(slotRole == SlotRole.TRADER) {
+                    traderCount++;
+                } else if(slotRole == SlotRole.TRADEE) {
+                    tradeeCount++;
+                }
+
+                roles[slot] = slotRole;
+            }
+        }
+
+        for(int i = 0; i < buttonSlots.length; i++) {
+            if(buttonSlots[i] == -1 && SlotRole.values()[i].isRequired()) {
+                throw new IllegalArgumentException("is missing '" + SlotRole.values()[i].getSymbol() + "'");
+            }
+        }
+
+        if(traderCount == 0 || tradeeCount == 0) {
+            throw new IllegalArgumentException("needs at least one 'T' and one 'E' slot");
+        }
+
+        traderSlots = new int[traderCount];
+        tradeeSlots = new int[tradeeCount];
+        traderCount = 0;
+        tradeeCount = 0;
+
+        for(int slot = 0; slot < roles.length; slot++) {
+            if(roles[slot] == SlotRole.TRADER) {
+                traderSlots[traderCount++] = slot;
+            } else if(roles[slot] == SlotRole.TRADEE) {
+                tradeeSlots[tradeeCount++] = slot;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of slots in the layout
+     * @return the number of slots in the layout
+     */
+    public int getSize() {
+        return roles.length;
+    }
+
+    /**
+     * Returns the role of a slot
+     * @param rawSlot the raw slot of a click
+     * @return the role of the slot, OUTSIDE for slots that are not part of the menu
+     */
+    public SlotRole getRole(int rawSlot) {
+        if(rawSlot < 0 || rawSlot >= roles.length) {return SlotRole.OUTSIDE;}
+
+        return roles[rawSlot];
+    }
+
+    /**
+     * Returns the slot a button is in
+     * @param slotRole the role of the button
+     * @return the slot the button is in or -1 if the layout does not have the button
+     */
+    public int getButtonSlot(SlotRole slotRole) {
+        return buttonSlots[slotRole.ordinal()];
+    }
+
+    /**
+     * Returns if the layout has a button
+     * @param slotRole the role of the button
+     * @return if the layout has the button
+     */
+    public boolean hasButton(SlotRole slotRole) {
+        return buttonSlots[slotRole.ordinal()] != -1;
+    }
+
+    /**
+     * Returns the slots the trader offers items in, the array must not be modified
+     * @return the slots the trader offers items in
+     */
+    public int[] getTraderSlots() {
+        return traderSlots;
+    }
+
+    /**
+     * Returns the slots the tradee offers items in, the array must not be modified
+     * @return the slots the tradee offers items in
+     */
+    public int[] getTradeeSlots() {
+        return tradeeSlots;
+    }
+}
@@ -24,86 +24,145 @@
 package com.serkprojects.enhancedtrade.menu;
 
 import com.serkprojects.enhancedtrade.EnhancedTrade;
-import gnu.trove.set.hash.THashSet;
+import com.serkprojects.enhancedtrade.audit.AuditLog;
+import com.serkprojects.enhancedtrade.economy.EscrowAccount;
+import com.serkprojects.enhancedtrade.journal.TradeJournal;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.text.Message;
 import org.bukkit.*;
 import org.bukkit.entity.HumanEntity;
-import org.bukkit.entity.Item;
 import org.bukkit.entity.Player;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.material.Wool;
-import org.bukkit.metadata.FixedMetadataValue;
 
 import java.util.*;
 
-public class TradeMenu {
+public class TradeMenu implements InventoryHolder {
+    private static final SlotRole[] SLOT_ROLES = SlotRole.values();
+
     private EnhancedTrade plugin = null;
-    private String headerString = "settings.trade.interface.entry.";
 
     private UUID traderUUID = null;
     private UUID tradeeUUID = null;
 
-    private boolean built = false;
+    // Resolved participant handles, null until first looked up or after the participant leaves
+    private Player trader = null;
+    private Player tradee = null;
 
-    // Range of slots for the trader
-    private int traderRangeStart = 0;
-    private int traderRangeEnd = 17;
+    // Role of every slot, taken from the settings when the menu is created
+    private TradeLayout layout = null;
 
-    // Array of reserved slots
-    private int[] reservedSlotArray = new int[] {18, 19, 20, 21, 22, 23, 24, 25, 26};
+    // Staged menu items by button ordinal, changes are flushed to the inventory once per tick
+    private ItemStack[] menuItems = new ItemStack[SlotRole.BUTTON_COUNT];
+    private int dirtyMenuItems = 0;
 
-    // Range of slots for the tradee
-    private int tradeeRangeStart = 27;
-    private int tradeeRangeEnd = 44;
+    // Pages of offered items, only the page being shown is held in the inventory
+    private int pageCount = 1;
+    private int page = 0;
+    private int pendingPage = 0;
 
-    private Inventory inventory = null;
+    // Items on the pages not being shown by page and then position in the side's slot list, created on the first page switch
+    private ItemStack[] traderPages = null;
+    private ItemStack[] tradeePages = null;
 
-    private boolean awaitingAcceptance = true;
+    // Created on first use and released as soon as the trade settles
+    private Inventory inventory = null;
 
     private int traderMoney = 0;
     private int tradeeMoney = 0;
 
+    // Escrow accounts holding the money each side has put into the trade
+    private EscrowAccount traderEscrow = null;
+    private EscrowAccount tradeeEscrow = null;
+
+    // Set when a withdrawal fails while the trade is waiting for its money to be held, which aborts the trade
+    private boolean holdFailed = false;
+
+    private TradeState state = TradeState.REQUESTED;
+
+    // Time in milliseconds the trade was accepted
+    private long openedAt = 0;
+
+    // Journal id of the trade, -1 until it is accepted or when journaling is unavailable
+    private long journalId = -1;
+
+    // Last journaled contents of each slot and if the trade slots have changed since
+    private ItemStack[] journaledItems = null;
+    private boolean itemsChanged = false;
+
+    // Seconds left before the trade completes, 0 when not counting down
+    private int countdownCounter = 0;
+
+    // Bumped whenever a side's offer changes, the countdown only holds for the offer versions it was started at
+    private int traderOfferVersion = 0;
+    private int tradeeOfferVersion = 0;
+    private int countdownOfferVersion = 0;
+
     /**
      * Creates an instance of the trading menu
      * @param plugin plugin used for pulling ItemStack settings
      */
     public TradeMenu(EnhancedTrade plugin) {
         this.plugin = plugin;
-
-        inventory = Bukkit.createInventory(null, 45, ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString("settings.trade.interface.name")));
+        layout = plugin.getTradeSettings().getLayout();
+        pageCount = plugin.getTradeSettings().getPages();
     }
 
     /**
      * Call to build inventory
      */
     private void buildInventory() {
-        inventory.setItem(reservedSlotArray[0], getNewTraderReadinessStack());
-        inventory.setItem(reservedSlotArray[1], getNewTradeeReadinessStack());
-        inventory.setItem(reservedSlotArray[2], getNewTradeInfoStack());
-        inventory.setItem(reservedSlotArray[3], getNewRemindPlayerStack());
-        inventory.setItem(reservedSlotArray[4], getNewAddOneCurrencyStack());
-        inventory.setItem(reservedSlotArray[5], getNewRemoveOneCurrencyStack());
-        inventory.setItem(reservedSlotArray[6], getNewAddTenCurrencyStack());
-        inventory.setItem(reservedSlotArray[7], getNewRemoveTenCurrencyStack());
-        inventory.setItem(reservedSlotArray[8], getNewCancelTradeStack());
-
-        built = true;
+        menuItems[SlotRole.TRADER_READINESS.ordinal()] = getNewTraderReadinessStack();
+        menuItems[SlotRole.TRADEE_READINESS.ordinal()] = getNewTradeeReadinessStack();
+        menuItems[SlotRole.TRADE_INFO.ordinal()] = getNewTradeInfoStack();
+        menuItems[SlotRole.REMIND_PLAYER.ordinal()] = getNewRemindPlayerStack();
+        menuItems[SlotRole.ADD_ONE_CURRENCY.ordinal()] = getNewAddOneCurrencyStack();
+        menuItems[SlotRole.REMOVE_ONE_CURRENCY.ordinal()] = getNewRemoveOneCurrencyStack();
+        menuItems[SlotRole.ADD_TEN_CURRENCY.ordinal()] = getNewAddTenCurrencyStack();
+        menuItems[SlotRole.REMOVE_TEN_CURRENCY.ordinal()] = getNewRemoveTenCurrencyStack();
+        menuItems[SlotRole.CANCEL_TRADE.ordinal()] = getNewCancelTradeStack();
+        menuItems[SlotRole.PREVIOUS_PAGE.ordinal()] = getNewPreviousPageStack();
+        menuItems[SlotRole.NEXT_PAGE.ordinal()] = getNewNextPageStack();
+
+        renderReadiness(SlotRole.TRADER_READINESS, state.isTraderReady());
+        renderReadiness(SlotRole.TRADEE_READINESS, state.isTradeeReady());
+
+        for(int i = 0; i < menuItems.length; i++) {
+            if(!layout.hasButton(SLOT_ROLES[i])) {continue;}
+
+            inventory.setItem(layout.getButtonSlot(SLOT_ROLES[i]), menuItems[i]);
+        }
     }
 
     /**
-     * Returns the current inventory for the trade menu
-     * @return the current inventory for the trade menu
+     * Returns the current inventory for the trade menu, creating it on first use
+     * @return the current inventory for the trade menu or null if the trade has settled
      */
+    @Override
     public Inventory getInventory() {
-        if(!built) {
+        if(inventory == null && !state.isSettled()) {
+            // The menu holds its own inventory so listeners can recognise it by identity
+            inventory = Bukkit.createInventory(this, layout.getSize(), plugin.getMenuItemTemplates().getMenuTitle());
             buildInventory();
         }
 
         return inventory;
     }
 
+    /**
+     * Returns the players viewing the trade menu without creating its inventory
+     * @return the players viewing the trade menu, empty if the inventory has not been created or was released
+     */
+    public List<HumanEntity> getViewers() {
+        if(inventory == null) {return Collections.emptyList();}
+
+        return inventory.getViewers();
+    }
+
     /**
      * Returns the trader's UUID
      *
@@ -122,11 +181,12 @@ public class TradeMenu {
     }
 
     /**
-     * Returns if the trade needs to be accepted first
-     * @return if the trade needs to be accepted first
+     * Returns the role of a slot in the menu
+     * @param rawSlot the raw slot to check
+     * @return the role of the slot, OUTSIDE for slots in the player's own inventory
      */
-    public boolean isAwaitingAcceptance() {
-        return awaitingAcceptance;
+    public SlotRole getSlotRole(int rawSlot) {
+        return layout.getRole(rawSlot);
     }
 
     /**
@@ -136,13 +196,7 @@ public class TradeMenu {
      * @return if a slot is for a reserved menu item
      */
     public boolean isReservedSlot(int slot) {
-        for (int aSlotArray : reservedSlotArray) {
-            if (slot == aSlotArray) {
-                return true;
-            }
-        }
-
-        return false;
+        return layout.getRole(slot).isReserved();
     }
 
     /**
@@ -151,7 +205,7 @@ public class TradeMenu {
      * @return if a slot belongs to the trader
      */
     public boolean isTraderSlot(int slot) {
-        return slot >= traderRangeStart && slot <= traderRangeEnd;
+        return layout.getRole(slot) == SlotRole.TRADER;
     }
 
     /**
@@ -160,21 +214,23 @@ public class TradeMenu {
      * @return if a slot belongs to the tradee
      */
     public boolean isTradeeSlot(int slot) {
-        return slot >= tradeeRangeStart && slot <= tradeeRangeEnd;
+        return layout.getRole(slot) == SlotRole.TRADEE;
     }
 
     /**
      * Checks if the trade is complete
-     * @return if the the trade is complete
+     * @return if both sides are ready and the trade is counting down
      */
     public boolean isTradeComplete() {
-        if (inventory.getItem(reservedSlotArray[0]) == null || inventory.getItem(reservedSlotArray[1]) == null) {return false;}
-        if (!inventory.getItem(reservedSlotArray[0]).hasItemMeta() || !inventory.getItem(reservedSlotArray[1]).hasItemMeta()) {return false;}
-
-        Wool traderWool = (Wool) inventory.getItem(reservedSlotArray[0]).getData();
-        Wool tradeeWool = (Wool) inventory.getItem(reservedSlotArray[1]).getData();
+        return state == TradeState.COUNTDOWN;
+    }
 
-        return tradeeWool.getColor() == DyeColor.GREEN && traderWool.getColor() == DyeColor.GREEN;
+    /**
+     * Returns the state of the trade
+     * @return the state of the trade
+     */
+    public TradeState getState() {
+        return state;
     }
 
     /**
@@ -182,172 +238,77 @@ public class TradeMenu {
      * @param e the inventory click event related to the click
      */
     public void handleClick(InventoryClickEvent e) {
-        if(!isReservedSlot(e.getSlot())) {return;}
-
-        switch (e.getSlot()) {
-            case 18: {
-                if(!e.getWhoClicked().getUniqueId().equals(traderUUID)) {break;}
+        // Nothing in the offer may change once the trade has started settling
+        if(state.isSettled()) {return;}
 
-                toggleReadinessStack(e);
+        SlotRole slotRole = layout.getRole(e.getRawSlot());
 
-                if(isTradeComplete()) {
-                    plugin.getTradeTickDownTask().addTickingDownTradeMenu(this, plugin.getConfig().getInt("settings.trade.tickDownCounter"));
-                    setAllMenuItemAmounts(plugin.getConfig().getInt("settings.trade.tickDownCounter"));
-                } else {
-                    plugin.getTradeTickDownTask().removeTickingDownTradeMenu(this);
-                    setAllMenuItemAmounts(1);
-                }
+        switch (slotRole) {
+            case TRADER_READINESS: {
+                if(!e.getWhoClicked().getUniqueId().equals(traderUUID)) {break;}
 
+                toggleReadiness(slotRole);
                 break;
             }
-            case 19: {
+            case TRADEE_READINESS: {
                 if(!e.getWhoClicked().getUniqueId().equals(tradeeUUID)) {break;}
 
-                toggleReadinessStack(e);
-
-                if(isTradeComplete()) {
-                    plugin.getTradeTickDownTask().addTickingDownTradeMenu(this, plugin.getConfig().getInt("settings.trade.tickDownCounter"));
-                    setAllMenuItemAmounts(plugin.getConfig().getInt("settings.trade.tickDownCounter"));
-                } else {
-                    plugin.getTradeTickDownTask().removeTickingDownTradeMenu(this);
-                    setAllMenuItemAmounts(1);
-                }
-
+                toggleReadiness(slotRole);
                 break;
             }
-            case 21: {
+            case REMIND_PLAYER: {
                 if(e.getWhoClicked().getUniqueId().equals(traderUUID)) {
-                    plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(tradeeUUID), true, plugin.getLanguage().getMessage("tradeStillGoing"));
+                    plugin.getMessageCatalogue().send(getTradee(), Message.TRADE_STILL_GOING);
                 } else if(e.getWhoClicked().getUniqueId().equals(tradeeUUID)) {
-                    plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(traderUUID), true, plugin.getLanguage().getMessage("tradeStillGoing"));
+                    plugin.getMessageCatalogue().send(getTrader(), Message.TRADE_STILL_GOING);
                 }
 
                 break;
             }
-            case 22: {
+            case ADD_ONE_CURRENCY: {
                 if(plugin.getEconomy() != null) {
-                    int cost;
-
-                    if(e.isShiftClick()) {
-                        cost = 10;
-                    } else {
-                        cost = 1;
-                    }
-
-                    if(!plugin.getEconomy().has((OfflinePlayer) e.getWhoClicked(), cost)) {
-                        plugin.getMessaging().sendMessage(e.getWhoClicked(), true, plugin.getLanguage().getMessage("canNotAfford"));
-                        return;
-                    }
-
-                    plugin.getEconomy().withdrawPlayer((OfflinePlayer) e.getWhoClicked(), cost);
-
-                    if(traderUUID != null && traderUUID.equals(e.getWhoClicked().getUniqueId())) {
-                        traderMoney = traderMoney + cost;
-                    } else if(tradeeUUID != null && tradeeUUID.equals(e.getWhoClicked().getUniqueId())) {
-                        tradeeMoney = tradeeMoney + cost;
-                    }
+                    addMoney(e.getWhoClicked().getUniqueId(), e.isShiftClick() ? 10 : 1);
                 }
 
-                refreshTraderInfo(e);
+                refreshTraderInfo();
                 break;
             }
-            case 23: {
+            case REMOVE_ONE_CURRENCY: {
                 if(plugin.getEconomy() != null) {
-                    int returned;
-
-                    if(e.isShiftClick()) {
-                        returned = 10;
-                    } else {
-                        returned = 1;
-                    }
-
-                    if(traderUUID != null && traderUUID.equals(e.getWhoClicked().getUniqueId())) {
-                        if(traderMoney < returned) {
-                            plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), traderMoney);
-                            traderMoney = 0;
-                        } else {
-                            plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), returned);
-                            traderMoney = traderMoney - returned;
-                        }
-
-                        traderMoney = traderMoney - returned;
-                    } else if(tradeeUUID != null && tradeeUUID.equals(e.getWhoClicked().getUniqueId())) {
-                        if(tradeeMoney < returned) {
-                            plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), tradeeMoney);
-                            tradeeMoney = 0;
-                        } else {
-                            plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), returned);
-                            tradeeMoney = tradeeMoney - returned;
-                        }
-                    }
+                    removeMoney(e.getWhoClicked().getUniqueId(), e.isShiftClick() ? 10 : 1);
                 }
 
-                refreshTraderInfo(e);
+                refreshTraderInfo();
                 break;
             }
-            case 24: {
+            case ADD_TEN_CURRENCY: {
                 if(plugin.getEconomy() != null) {
-                    int cost;
-
-                    if(e.isShiftClick()) {
-                        cost = 100;
-                    } else {
-                        cost = 10;
-                    }
-
-                    if(!plugin.getEconomy().has((OfflinePlayer) e.getWhoClicked(), cost)) {
-                        plugin.getMessaging().sendMessage(e.getWhoClicked(), true, plugin.getLanguage().getMessage("canNotAfford"));
-                        return;
-                    }
-
-                    plugin.getEconomy().withdrawPlayer((OfflinePlayer) e.getWhoClicked(), cost);
-
-                    if(traderUUID != null && traderUUID.equals(e.getWhoClicked().getUniqueId())) {
-                        traderMoney = traderMoney + cost;
-                    } else if(tradeeUUID != null && tradeeUUID.equals(e.getWhoClicked().getUniqueId())) {
-                        tradeeMoney = tradeeMoney + cost;
-                    }
+                    addMoney(e.getWhoClicked().getUniqueId(), e.isShiftClick() ? 100 : 10);
                 }
 
-                refreshTraderInfo(e);
+                refreshTraderInfo();
                 break;
             }
-            case 25: {
-                int returned;
-
-                if(e.isShiftClick()) {
-                    returned = 100;
-                } else {
-                    returned = 10;
-                }
-
-                if(traderUUID != null && traderUUID.equals(e.getWhoClicked().getUniqueId())) {
-                    if(traderMoney < returned) {
-                        plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), traderMoney);
-                        traderMoney = 0;
-                    } else {
-                        plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), returned);
-                        traderMoney = traderMoney - returned;
-                    }
-
-                    traderMoney = traderMoney - returned;
-                } else if(tradeeUUID != null && tradeeUUID.equals(e.getWhoClicked().getUniqueId())) {
-                    if(tradeeMoney < returned) {
-                        plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), tradeeMoney);
-                        tradeeMoney = 0;
-                    } else {
-                        plugin.getEconomy().depositPlayer((OfflinePlayer) e.getWhoClicked(), returned);
-                        tradeeMoney = tradeeMoney - returned;
-                    }
+            case REMOVE_TEN_CURRENCY: {
+                if(plugin.getEconomy() != null) {
+                    removeMoney(e.getWhoClicked().getUniqueId(), e.isShiftClick() ? 100 : 10);
                 }
 
-                refreshTraderInfo(e);
+                refreshTraderInfo();
                 break;
             }
-            case 26: {
+            case CANCEL_TRADE: {
                 cancelTrade();
                 break;
             }
+            case PREVIOUS_PAGE: {
+                requestPage(pendingPage - 1);
+                break;
+            }
+            case NEXT_PAGE: {
+                requestPage(pendingPage + 1);
+                break;
+            }
             default:
                 break;
         }
@@ -358,34 +319,7 @@ public class TradeMenu {
      * @return the default ItemStack used for the trader readiness item
      */
     public ItemStack getNewTraderReadinessStack() {
-        Wool wool = new Wool();
-        wool.setColor(DyeColor.RED);
-
-        ItemStack itemStack = wool.toItemStack(1);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-
-        Player player = plugin.getServer().getPlayer(traderUUID);
-
-        String name;
-
-        if(player != null) {
-            name = player.getName();
-        } else {
-            name = "none";
-        }
-
-        itemMeta.setDisplayName(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "toggleReadinessTrader.name").replace("{name}", name)));
-
-        List<String> loreList = new ArrayList<String>();
-
-        for(String loreString: plugin.getConfig().getStringList(headerString + "toggleReadinessTrader.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
-
-        itemMeta.setLore(loreList);
-        itemStack.setItemMeta(itemMeta);
-
-        return itemStack;
+        return plugin.getMenuItemTemplates().getTraderReadinessStack(getPlayerName(getTrader()));
     }
 
     /**
@@ -393,34 +327,7 @@ public class TradeMenu {
      * @return the default ItemStack used for the tradee readiness item
      */
     public ItemStack getNewTradeeReadinessStack() {
-        Wool wool = new Wool();
-        wool.setColor(DyeColor.RED);
-
-        ItemStack itemStack = wool.toItemStack(1);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-
-        Player player = plugin.getServer().getPlayer(tradeeUUID);
-
-        String name;
-
-        if(player != null) {
-            name = player.getName();
-        } else {
-            name = "none";
-        }
-
-        itemMeta.setDisplayName(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "toggleReadinessTradee.name").replace("{name}", name)));
-
-        List<String> loreList = new ArrayList<String>();
-
-        for(String loreString: plugin.getConfig().getStringList(headerString + "toggleReadinessTradee.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
-
-        itemMeta.setLore(loreList);
-        itemStack.setItemMeta(itemMeta);
-
-        return itemStack;
+        return plugin.getMenuItemTemplates().getTradeeReadinessStack(getPlayerName(getTradee()));
     }
 
     /**
@@ -428,18 +335,10 @@ public class TradeMenu {
      * @return the default ItemStack used for the trade info item
      */
     public ItemStack getNewTradeInfoStack() {
-        ItemStack itemStack = new ItemStack(Material.SIGN);
+        ItemStack itemStack = plugin.getMenuItemTemplates().getTradeInfoStack();
         ItemMeta itemMeta = itemStack.getItemMeta();
 
-        itemMeta.setDisplayName(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "tradeInfo.name")));
-
-        List<String> loreList = new ArrayList<String>();
-
-        loreList.add("Current Trade Information:");
-        loreList.add("Trader Money: " + "{currency-" + traderMoney + "}");
-        loreList.add("Tradee Money: " + "{currency-" + tradeeMoney + "}");
-
-        itemMeta.setLore(formatCurrencyVariables(loreList));
+        itemMeta.setLore(getTradeInfoLore());
         itemStack.setItemMeta(itemMeta);
 
         return itemStack;
@@ -450,21 +349,7 @@ public class TradeMenu {
      * @return the default ItemStack used for the remind player stack
      */
     public ItemStack getNewRemindPlayerStack() {
-        ItemStack itemStack = new ItemStack(Material.PAPER);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-
-        itemMeta.setDisplayName(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "remindPlayer.name")));
-
-        List<String> loreList = new ArrayList<String>();
-
-        for(String loreString: plugin.getConfig().getStringList(headerString + "remindPlayer.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
-
-        itemMeta.setLore(loreList);
-        itemStack.setItemMeta(itemMeta);
-
-        return itemStack;
+        return plugin.getMenuItemTemplates().getRemindPlayerStack();
     }
 
     /**
@@ -473,21 +358,7 @@ public class TradeMenu {
      * @return the default ItemStack for the add one currency item
      */
     public ItemStack getNewAddOneCurrencyStack() {
-        ItemStack itemStack = new ItemStack(Material.GOLD_NUGGET);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-
-        itemMeta.setDisplayName(formatCurrencyVariable(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "addOneCurrency.name"))));
-
-        List<String> loreList = new ArrayList<String>();
-
-        for(String loreString: plugin.getConfig().getStringList(headerString + "addOneCurrency.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
-
-        itemMeta.setLore(formatCurrencyVariables(loreList));
-        itemStack.setItemMeta(itemMeta);
-
-        return itemStack;
+        return plugin.getMenuItemTemplates().getAddOneCurrencyStack();
     }
 
     /**
@@ -495,21 +366,7 @@ public class TradeMenu {
      * @return the default ItemStack for the remove one currency item
      */
     public ItemStack getNewRemoveOneCurrencyStack() {
-        ItemStack itemStack = new ItemStack(Material.GHAST_TEAR);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-
-        itemMeta.setDisplayName(formatCurrencyVariable(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "removeOneCurrency.name"))));
-
-        List<String> loreList = new ArrayList<String>();
-
-        for(String loreString: plugin.getConfig().getStringList(headerString + "removeOneCurrency.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
-
-        itemMeta.setLore(formatCurrencyVariables(loreList));
-        itemStack.setItemMeta(itemMeta);
-
-        return itemStack;
+        return plugin.getMenuItemTemplates().getRemoveOneCurrencyStack();
     }
 
     /**
@@ -517,21 +374,7 @@ public class TradeMenu {
      * @return the default ItemStack for the add ten currency item
      */
     public ItemStack getNewAddTenCurrencyStack() {
-        ItemStack itemStack = new ItemStack(Material.GOLD_INGOT);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-
-        itemMeta.setDisplayName(formatCurrencyVariable(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "addTenCurrency.name"))));
-
-        List<String> loreList = new ArrayList<String>();
-
-        for(String loreString: plugin.getConfig().getStringList(headerString + "addTenCurrency.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
-
-        itemMeta.setLore(formatCurrencyVariables(loreList));
-        itemStack.setItemMeta(itemMeta);
-
-        return itemStack;
+        return plugin.getMenuItemTemplates().getAddTenCurrencyStack();
     }
 
     /**
@@ -539,21 +382,7 @@ public class TradeMenu {
      * @return the default ItemStack for the remove ten currency item
      */
     public ItemStack getNewRemoveTenCurrencyStack() {
-        ItemStack itemStack = new ItemStack(Material.IRON_INGOT);
-        ItemMeta itemMeta = itemStack.getItemMeta();
-
-        itemMeta.setDisplayName(formatCurrencyVariable(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "removeTenCurrency.name"))));
-
-        List<String> loreList = new ArrayList<String>();
-
-        for(String loreString: plugin.getConfig().getStringList(headerString + "removeTenCurrency.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
-
-        itemMeta.setLore(formatCurrencyVariables(loreList));
-        itemStack.setItemMeta(itemMeta);
-
-        return itemStack;
+        return plugin.getMenuItemTemplates().getRemoveTenCurrencyStack();
     }
 
     /**
@@ -561,32 +390,58 @@ public class TradeMenu {
      * @return the default ItemStack for the cancel trade item
      */
     public ItemStack getNewCancelTradeStack() {
-        ItemStack itemStack = new ItemStack(Material.BARRIER);
-        ItemMeta itemMeta = itemStack.getItemMeta();
+        return plugin.getMenuItemTemplates().getCancelTradeStack();
+    }
 
-        itemMeta.setDisplayName(ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(headerString + "cancelTrade.name")));
+    /**
+     * Returns the default ItemStack for the previous page item
+     * @return the default ItemStack for the previous page item
+     */
+    public ItemStack getNewPreviousPageStack() {
+        return plugin.getMenuItemTemplates().getPreviousPageStack();
+    }
 
-        List<String> loreList = new ArrayList<String>();
+    /**
+     * Returns the default ItemStack for the next page item
+     * @return the default ItemStack for the next page item
+     */
+    public ItemStack getNewNextPageStack() {
+        return plugin.getMenuItemTemplates().getNextPageStack();
+    }
 
-        for(String loreString: plugin.getConfig().getStringList(headerString + "cancelTrade.lore")) {
-            loreList.add(ChatColor.translateAlternateColorCodes('&', loreString));
-        }
+    private String getPlayerName(Player player) {
+        if(player == null) {return "none";}
 
-        itemMeta.setLore(loreList);
-        itemStack.setItemMeta(itemMeta);
+        return player.getName();
+    }
 
-        return itemStack;
+    private List<ItemStack> getTraderItemStacks() {
+        return getOfferedItemStacks(layout.getTraderSlots(), traderPages);
+    }
+
+    private List<ItemStack> getTradeeItemStacks() {
+        return getOfferedItemStacks(layout.getTradeeSlots(), tradeePages);
     }
 
-    private THashSet<ItemStack> getTraderItemStacks() {
-        THashSet<ItemStack> itemStackList = new THashSet<>();
+    private List<ItemStack> getOfferedItemStacks(int[] slots, ItemStack[] pages) {
+        List<ItemStack> itemStackList = new ArrayList<ItemStack>(slots.length);
 
         if(inventory == null) {return itemStackList;}
 
-        for(int i = 0; i < inventory.getContents().length; i++) {
-            if(isTraderSlot(i)) {
-                if(inventory.getItem(i)!= null && inventory.getItem(i).getType() != Material.AIR) {
-                    itemStackList.add(inventory.getItem(i));
+        // One read of the contents, identical stacks in different slots are kept separate
+        ItemStack[] contents = inventory.getContents();
+
+        for(int slot: slots) {
+            if(contents[slot] != null && contents[slot].getType() != Material.AIR) {
+                itemStackList.add(contents[slot]);
+            }
+        }
+
+        // The positions of the page being shown are empty in the page store
+        if(pages != null) {
+            for(ItemStack itemStack: pages) {
+                if(itemStack != null && itemStack.getType() != Material.AIR) {
+                    itemStackList.add(itemStack);
                 }
             }
         }
@@ -594,20 +449,28 @@ public class TradeMenu {
         return itemStackList;
     }
 
-    private THashSet<ItemStack> getTradeeItemStacks() {
-        THashSet<ItemStack> itemStackList = new THashSet<>();
-
-        if(inventory == null) {return itemStackList;}
-
-        for(int i = 0; i < inventory.getContents().length; i++) {
-            if(isTradeeSlot(i)) {
-                if(inventory.getItem(i) != null && inventory.getItem(i).getType() != Material.AIR) {
-                    itemStackList.add(inventory.getItem(i));
-                }
+    /**
+     * Gives items to a player, dropping what does not fit at their feet
+     * @param player the player to give the items to or null if they are offline
+     * @param UUID the UUID of the player
+     * @param itemStacks the items to give
+     * @return if any items had to be dropped
+     */
+    private boolean giveItems(Player player, UUID UUID, List<ItemStack> itemStacks) {
+        if(itemStacks.isEmpty()) {return false;}
+
+        // Offline players get their items through the journal the next time they join
+        if(player == null) {
+            if(plugin.getTradeJournal() != null) {
+                plugin.getTradeJournal().recordPendingDelivery(UUID, itemStacks.toArray(new ItemStack[itemStacks.size()]));
+            } else {
+                plugin.getLogger().warning("Could not return " + itemStacks.size() + " item stacks to " + UUID + ", they are offline and the trade journal is unavailable");
             }
+
+            return false;
         }
 
-        return itemStackList;
+        return plugin.getItemTransfer().give(player, itemStacks);
     }
 
     /**
@@ -616,6 +479,7 @@ public class TradeMenu {
      */
     public void setTraderUUID(UUID UUID) {
         traderUUID = UUID;
+        trader = null;
     }
 
     /**
@@ -624,6 +488,45 @@ public class TradeMenu {
      */
     public void setTradeeUUID(UUID UUID) {
         tradeeUUID = UUID;
+        tradee = null;
+    }
+
+    /**
+     * Returns the trader, resolving them the first time they are needed
+     * @return the trader or null if they are offline
+     */
+    public Player getTrader() {
+        if(trader == null && traderUUID != null) {
+            trader = plugin.getServer().getPlayer(traderUUID);
+        }
+
+        return trader;
+    }
+
+    /**
+     * Returns the tradee, resolving them the first time they are needed
+     * @return the tradee or null if they are offline
+     */
+    public Player getTradee() {
+        if(tradee == null && tradeeUUID != null) {
+            tradee = plugin.getServer().getPlayer(tradeeUUID);
+        }
+
+        return tradee;
+    }
+
+    /**
+     * Drops the resolved handle of a participant that has left so it is not kept alive or used after they are gone
+     * @param UUID the UUID of the player that left
+     */
+    public void invalidatePlayer(UUID UUID) {
+        if(UUID.equals(traderUUID)) {
+            trader = null;
+        }
+
+        if(UUID.equals(tradeeUUID)) {
+            tradee = null;
+        }
     }
 
     /**
@@ -631,200 +534,605 @@ public class TradeMenu {
      * @param amount the amount to set menu items to
      */
     public void setAllMenuItemAmounts(int amount) {
-        for(int slot: reservedSlotArray) {
-            ItemStack itemStack = inventory.getItem(slot);
-            itemStack.setAmount(amount);
-            inventory.setItem(slot, itemStack);
+        for(int i = 0; i < menuItems.length; i++) {
+            if(menuItems[i] == null || menuItems[i].getAmount() == amount) {continue;}
+
+            menuItems[i].setAmount(amount);
+            markMenuItemDirty(i);
         }
+    }
 
-        for(HumanEntity humanEntity: inventory.getViewers()) {
-            if(humanEntity instanceof Player) {
-                ((Player) humanEntity).updateInventory();
+    /**
+     * Writes every staged menu item change to the inventory, only slots that differ from the inventory are written
+     */
+    public void flushMenuItems() {
+        if(inventory == null) {return;}
+
+        if(pendingPage != page) {
+            showPage(pendingPage);
+        }
+
+        if(dirtyMenuItems == 0) {return;}
+
+        for(int i = 0; i < menuItems.length; i++) {
+            if((dirtyMenuItems & (1 << i)) == 0) {continue;}
+
+            int slot = layout.getButtonSlot(SLOT_ROLES[i]);
+
+            if(slot == -1) {continue;}
+
+            ItemStack current = inventory.getItem(slot);
+
+            if(menuItems[i] == null ? current != null : !menuItems[i].equals(current)) {
+                inventory.setItem(slot, menuItems[i]);
             }
         }
+
+        dirtyMenuItems = 0;
     }
 
-    private String formatCurrencyVariable(String string) {
-        String[] splitString = string.split(" +");
-        for(String entry: splitString) {
-            if (entry.startsWith("{currency")) {
-                string = string.replace(entry, formatCurrency(Integer.parseInt(entry.replaceAll("[^0-9]", ""))));
-            }
+    private void markMenuItemDirty(int index) {
+        if(dirtyMenuItems == 0) {
+            plugin.getMenuUpdateBatcher().markDirty(this);
         }
 
-        return string;
+        dirtyMenuItems |= 1 << index;
     }
 
-    private List<String> formatCurrencyVariables(List<String> stringList) {
-        List<String> formattedVariables = new ArrayList<String>();
+    /**
+     * Returns the page of offered items being shown
+     * @return the page of offered items being shown, starting at 0
+     */
+    public int getPage() {
+        return page;
+    }
 
-        for(String entry: stringList) {
-            String[] splitString = entry.split(" +");
+    private void requestPage(int newPage) {
+        if(newPage < 0 || newPage >= pageCount || newPage == pendingPage) {return;}
 
-            for(String splitStringEntry: splitString) {
-                if (splitStringEntry.startsWith("{currency")) {
-                    entry = entry.replace(splitStringEntry, formatCurrency(Integer.parseInt(splitStringEntry.replaceAll("[^0-9]", ""))));
-                }
-            }
+        // The switch happens with the next flush rather than in the middle of a click
+        pendingPage = newPage;
+        plugin.getMenuUpdateBatcher().markDirty(this);
+    }
+
+    private void showPage(int newPage) {
+        // Journal the page being hidden while its slots are still keyed by its page number
+        flushJournal();
 
-            formattedVariables.add(entry);
+        if(traderPages == null) {
+            traderPages = new ItemStack[pageCount * layout.getTraderSlots().length];
+            tradeePages = new ItemStack[pageCount * layout.getTradeeSlots().length];
         }
 
-        return formattedVariables;
+        ItemStack[] contents = inventory.getContents();
+
+        swapPage(contents, layout.getTraderSlots(), traderPages, newPage);
+        swapPage(contents, layout.getTradeeSlots(), tradeePages, newPage);
+
+        inventory.setContents(contents);
+        page = newPage;
     }
 
-    private String formatCurrency(int amount) {
-        return plugin.getEconomy().format(amount);
+    private void swapPage(ItemStack[] contents, int[] slots, ItemStack[] pages, int newPage) {
+        int hiddenOffset = page * slots.length;
+        int shownOffset = newPage * slots.length;
+
+        for(int i = 0; i < slots.length; i++) {
+            pages[hiddenOffset + i] = contents[slots[i]];
+            contents[slots[i]] = pages[shownOffset + i];
+            pages[shownOffset + i] = null;
+        }
     }
 
-    private void refreshTraderInfo(InventoryClickEvent e) {
-        ItemStack itemStack = e.getInventory().getItem(reservedSlotArray[2]);
-        ItemMeta itemMeta = itemStack.getItemMeta();
+    private String formatCurrency(int amount) {
+        return plugin.getCurrencyFormatter().format(amount);
+    }
 
+    private List<String> getTradeInfoLore() {
         List<String> loreList = new ArrayList<String>();
 
         loreList.add("Current Trade Information:");
-        loreList.add("Trader Money: " + "{currency-" + traderMoney + "}");
-        loreList.add("Tradee Money: " + "{currency-" + tradeeMoney + "}");
+        loreList.add("Trader Money: " + formatCurrency(traderMoney));
+        loreList.add("Tradee Money: " + formatCurrency(tradeeMoney));
 
-        itemMeta.setLore(formatCurrencyVariables(loreList));
+        return loreList;
+    }
 
-        itemStack.setItemMeta(itemMeta);
+    private void addMoney(UUID UUID, final int amount) {
+        final boolean trader;
+
+        if(traderUUID != null && traderUUID.equals(UUID)) {
+            trader = true;
+            traderMoney = traderMoney + amount;
+        } else if(tradeeUUID != null && tradeeUUID.equals(UUID)) {
+            trader = false;
+            tradeeMoney = tradeeMoney + amount;
+        } else {
+            return;
+        }
+
+        audit(AuditLog.Event.MONEY_ADD, trader ? TradeJournal.SIDE_TRADER : TradeJournal.SIDE_TRADEE, amount);
+        markOfferChanged(trader ? TradeJournal.SIDE_TRADER : TradeJournal.SIDE_TRADEE);
+
+        // The money is shown straight away and taken back if the withdrawal fails once it settles
+        final EscrowAccount escrowAccount = trader ? getTraderEscrow() : getTradeeEscrow();
+
+        plugin.getEconomyPipeline().hold(escrowAccount, amount, new Runnable() {
+            @Override
+            public void run() {
+                if(state == TradeState.SETTLING) {
+                    holdFailed = true;
+                }
+
+                if(trader) {
+                    traderMoney = Math.max(0, traderMoney - amount);
+                } else {
+                    tradeeMoney = Math.max(0, tradeeMoney - amount);
+                }
+
+                refreshTraderInfo();
+                audit(AuditLog.Event.MONEY_REFUSED, trader ? TradeJournal.SIDE_TRADER : TradeJournal.SIDE_TRADEE, amount);
+                markOfferChanged(trader ? TradeJournal.SIDE_TRADER : TradeJournal.SIDE_TRADEE);
+
+                Player player = escrowAccount.getOwner().getPlayer();
+
+                if(player != null) {
+                    plugin.getMessageCatalogue().send(player, Message.CAN_NOT_AFFORD);
+                }
+            }
+        });
+    }
 
-        e.getView().getTopInventory().setItem(reservedSlotArray[2], itemStack);
+    private void removeMoney(UUID UUID, int amount) {
+        int returned;
+
+        if(traderUUID != null && traderUUID.equals(UUID)) {
+            returned = Math.min(amount, traderMoney);
+            traderMoney = traderMoney - returned;
+
+            if(returned > 0) {
+                plugin.getEconomyPipeline().giveBack(getTraderEscrow(), returned, newPayoutFailedCallback(plugin, traderUUID));
+                markOfferChanged(TradeJournal.SIDE_TRADER);
+            }
+
+            audit(AuditLog.Event.MONEY_REMOVE, TradeJournal.SIDE_TRADER, returned);
+        } else if(tradeeUUID != null && tradeeUUID.equals(UUID)) {
+            returned = Math.min(amount, tradeeMoney);
+            tradeeMoney = tradeeMoney - returned;
+
+            if(returned > 0) {
+                plugin.getEconomyPipeline().giveBack(getTradeeEscrow(), returned, newPayoutFailedCallback(plugin, tradeeUUID));
+                markOfferChanged(TradeJournal.SIDE_TRADEE);
+            }
+
+            audit(AuditLog.Event.MONEY_REMOVE, TradeJournal.SIDE_TRADEE, returned);
+        }
     }
 
-    private void toggleReadinessStack(InventoryClickEvent e) {
-        if(e.getCurrentItem() == null || e.getCurrentItem().getType() != Material.WOOL) {return;}
+    private void audit(AuditLog.Event event, byte side, int amount) {
+        AuditLog auditLog = plugin.getAuditLog();
+
+        if(auditLog != null) {
+            auditLog.append(event, journalId, traderUUID, tradeeUUID, side, amount);
+        }
+    }
 
-        Wool wool = (Wool) e.getCurrentItem().getData();
+    private EscrowAccount getTraderEscrow() {
+        if(traderEscrow == null) {
+            traderEscrow = new EscrowAccount(plugin.getServer().getOfflinePlayer(traderUUID), journalId, TradeJournal.SIDE_TRADER);
+        }
 
-        if (wool.getColor() == DyeColor.RED) {
-            wool.setColor(DyeColor.GREEN);
+        return traderEscrow;
+    }
+
+    private EscrowAccount getTradeeEscrow() {
+        if(tradeeEscrow == null) {
+            tradeeEscrow = new EscrowAccount(plugin.getServer().getOfflinePlayer(tradeeUUID), journalId, TradeJournal.SIDE_TRADEE);
+        }
+
+        return tradeeEscrow;
+    }
+
+    private static Runnable newPayoutFailedCallback(final EnhancedTrade plugin, final UUID UUID) {
+        // Static so a payout still in the pipeline does not keep a settled trade menu alive
+        return new Runnable() {
+            @Override
+            public void run() {
+                plugin.getMessageCatalogue().send(plugin.getServer().getPlayer(UUID), Message.TRADE_PAYOUT_FAILED);
+            }
+        };
+    }
+
+    private void refreshTraderInfo() {
+        int index = SlotRole.TRADE_INFO.ordinal();
+
+        if(state.isSettled() || menuItems[index] == null) {return;}
+
+        ItemStack itemStack = menuItems[index];
+        ItemMeta itemMeta = itemStack.getItemMeta();
+
+        itemMeta.setLore(getTradeInfoLore());
+
+        itemStack.setItemMeta(itemMeta);
+        markMenuItemDirty(index);
+    }
+
+    private void toggleReadiness(SlotRole slotRole) {
+        boolean trader = slotRole == SlotRole.TRADER_READINESS;
+        boolean ready = trader ? state.isTraderReady() : state.isTradeeReady();
+        TradeState.Event event;
+
+        if(trader) {
+            event = ready ? TradeState.Event.TRADER_UNREADY : TradeState.Event.TRADER_READY;
         } else {
-            wool.setColor(DyeColor.RED);
+            event = ready ? TradeState.Event.TRADEE_UNREADY : TradeState.Event.TRADEE_READY;
         }
 
-        ItemStack itemStack = wool.toItemStack(1);
-        itemStack.setItemMeta(e.getCurrentItem().getItemMeta());
+        if(!transition(event)) {return;}
+
+        renderReadiness(slotRole, !ready);
 
-        e.getView().getTopInventory().setItem(e.getRawSlot(), itemStack);
+        audit(ready ? AuditLog.Event.UNREADY : AuditLog.Event.READY, trader ? TradeJournal.SIDE_TRADER : TradeJournal.SIDE_TRADEE, 0);
+
+        if(isTradeComplete()) {
+            countdownOfferVersion = getOfferVersion();
+
+            int tickDownCounter = plugin.getTradeSettings().getTickDownCounter();
+            plugin.getTradeScheduler().startCountdown(this, tickDownCounter);
+            setAllMenuItemAmounts(tickDownCounter);
+        } else {
+            plugin.getTradeScheduler().stopCountdown(this);
+            setAllMenuItemAmounts(1);
+        }
+    }
+
+    private void renderReadiness(SlotRole slotRole, boolean ready) {
+        int index = slotRole.ordinal();
+
+        if(menuItems[index] == null || menuItems[index].getType() != Material.WOOL) {return;}
+
+        ItemStack currentItem = menuItems[index];
+        Wool wool = (Wool) currentItem.getData();
+        DyeColor color = ready ? DyeColor.GREEN : DyeColor.RED;
+
+        if(wool.getColor() == color) {return;}
+
+        wool.setColor(color);
+
+        ItemStack itemStack = wool.toItemStack(currentItem.getAmount());
+        itemStack.setItemMeta(currentItem.getItemMeta());
+
+        menuItems[index] = itemStack;
+        markMenuItemDirty(index);
+    }
+
+    private boolean transition(TradeState.Event event) {
+        TradeState next = state.next(event);
+
+        if(next == null) {
+            plugin.getLogger().warning("Rejected " + event + " for the trade between " + traderUUID + " and " + tradeeUUID + " while " + state);
+            return false;
+        }
+
+        state = next;
+        return true;
+    }
+
+    /**
+     * Returns the seconds left before the trade completes
+     * @return the seconds left before the trade completes, 0 when not counting down
+     */
+    public int getCountdownCounter() {
+        return countdownCounter;
+    }
+
+    /**
+     * Sets the seconds left before the trade completes
+     * @param countdownCounter the seconds left before the trade completes, 0 to stop counting down
+     */
+    public void setCountdownCounter(int countdownCounter) {
+        this.countdownCounter = countdownCounter;
+    }
+
+    /**
+     * Counts the trade down by one second and updates the menu items to match
+     * @return the seconds left before the trade completes
+     */
+    public int tickCountdown() {
+        if(countdownCounter > 0) {
+            countdownCounter--;
+            setAllMenuItemAmounts(countdownCounter);
+        }
+
+        return countdownCounter;
     }
 
     /**
      * Called when the trade is accepted
      */
     public void acceptTrade() {
-        awaitingAcceptance = false;
+        if(!transition(TradeState.Event.ACCEPT)) {return;}
+
+        openedAt = System.currentTimeMillis();
+
+        if(plugin.getTradeJournal() != null) {
+            journalId = plugin.getTradeJournal().recordOpen(traderUUID, tradeeUUID);
+            journaledItems = new ItemStack[pageCount * layout.getSize()];
+        }
     }
 
     /**
-     * Called when the trade is denied
+     * Marks the items offered by a side as changed so readiness is reset and they are journaled on the next tick
+     * @param side the side whose items changed, TradeJournal.SIDE_TRADER or TradeJournal.SIDE_TRADEE
      */
-    public void denyTrade() {
-        plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(tradeeUUID), true, plugin.getLanguage().getMessage("tradeDenied"));
-        plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(traderUUID), true, plugin.getLanguage().getMessage("tradeHasBeenDenied"));
-        plugin.removeActiveTrade(this);
+    public void markItemsChanged(byte side) {
+        markOfferChanged(side);
+
+        if(journalId < 0 || itemsChanged) {return;}
+
+        itemsChanged = true;
+        plugin.getMenuUpdateBatcher().markDirty(this);
     }
 
     /**
-     * Called to cancel a trade
+     * Returns the version of both offers, which changes whenever either side's items or money change
+     * @return the version of both offers
      */
-    public void cancelTrade() {
-        final List<HumanEntity> viewers = inventory.getViewers();
+    public int getOfferVersion() {
+        return traderOfferVersion + tradeeOfferVersion;
+    }
 
-        plugin.getServer().getScheduler().runTaskLater(plugin, new Runnable() {
-            @Override
-            public void run() {
-                for (HumanEntity viewer : viewers) {
-                    if(viewer == null) {continue;}
+    private void markOfferChanged(byte side) {
+        if(side == TradeJournal.SIDE_TRADER) {
+            traderOfferVersion++;
+        } else {
+            tradeeOfferVersion++;
+        }
 
-                    viewer.closeInventory();
-                }
-            }
-        }, 1);
+        // Readiness was given for the old offer, so nobody can swap items out from under it
+        if(state.isSettled() || (!state.isTraderReady() && !state.isTradeeReady())) {return;}
 
-        if(traderMoney > 0) {
-            plugin.getEconomy().depositPlayer(plugin.getServer().getPlayer(traderUUID), tradeeMoney);
+        resetReadiness();
+    }
+
+    private void resetReadiness() {
+        if(state.isTraderReady() && transition(TradeState.Event.TRADER_UNREADY)) {
+            renderReadiness(SlotRole.TRADER_READINESS, false);
+            audit(AuditLog.Event.UNREADY, TradeJournal.SIDE_TRADER, 0);
         }
 
-        if(tradeeMoney > 0) {
-            plugin.getEconomy().depositPlayer(plugin.getServer().getPlayer(tradeeUUID), traderMoney);
+        if(state.isTradeeReady() && transition(TradeState.Event.TRADEE_UNREADY)) {
+            renderReadiness(SlotRole.TRADEE_READINESS, false);
+            audit(AuditLog.Event.UNREADY, TradeJournal.SIDE_TRADEE, 0);
         }
 
-        HashMap<Integer, ItemStack> remainingTraderStacks = plugin.getServer().getPlayer(traderUUID).getInventory().addItem(getTraderItemStacks().toArray(new ItemStack[]{}));
-        HashMap<Integer, ItemStack> remainingTradeeStacks = plugin.getServer().getPlayer(tradeeUUID).getInventory().addItem(getTradeeItemStacks().toArray(new ItemStack[]{}));
+        plugin.getTradeScheduler().stopCountdown(this);
+        setAllMenuItemAmounts(1);
+
+        plugin.getMessageCatalogue().send(getTrader(), Message.TRADE_OFFER_CHANGED);
+        plugin.getMessageCatalogue().send(getTradee(), Message.TRADE_OFFER_CHANGED);
+    }
+
+    /**
+     * Journals every trade slot that changed since it was last journaled
+     */
+    public void flushJournal() {
+        if(!itemsChanged || inventory == null) {return;}
+        itemsChanged = false;
+
+        ItemStack[] contents = inventory.getContents();
+
+        flushJournal(contents, layout.getTraderSlots(), TradeJournal.SIDE_TRADER);
+        flushJournal(contents, layout.getTradeeSlots(), TradeJournal.SIDE_TRADEE);
+    }
+
+    private void flushJournal(ItemStack[] contents, int[] slots, byte side) {
+        // Slots are journaled by page so every page keeps its own entries
+        int offset = page * layout.getSize();
+
+        for(int slot: slots) {
+            ItemStack itemStack = contents[slot];
+            int key = offset + slot;
+
+            if(itemStack == null ? journaledItems[key] == null : itemStack.equals(journaledItems[key])) {continue;}
+
+            plugin.getTradeJournal().recordSlot(journalId, side, key, itemStack);
+            journaledItems[key] = itemStack == null ? null : itemStack.clone();
+        }
+    }
+
+    /**
+     * Called to cancel a trade
+     */
+    public void cancelTrade() {
+        if(!transition(TradeState.Event.CANCEL)) {return;}
+
+        settleCancelled();
+    }
+
+    private void settleCancelled() {
+        // Releasing is queued behind any withdrawal still in the pipeline, so it refunds exactly what was held
+        if(traderEscrow != null) {
+            plugin.getEconomyPipeline().release(traderEscrow, traderEscrow.getOwner(), newPayoutFailedCallback(plugin, traderUUID));
+        }
 
-        for (ItemStack traderItemStack : remainingTraderStacks.values()) {
-            Player trader = plugin.getServer().getPlayer(traderUUID);
-            Item item = trader.getWorld().dropItem(trader.getLocation(), traderItemStack);
-            item.setMetadata("p-protected", new FixedMetadataValue(plugin, trader.getUniqueId()));
+        if(tradeeEscrow != null) {
+            plugin.getEconomyPipeline().release(tradeeEscrow, tradeeEscrow.getOwner(), newPayoutFailedCallback(plugin, tradeeUUID));
         }
 
-        for (ItemStack tradeeItemStack : remainingTradeeStacks.values()) {
-            Player tradee = plugin.getServer().getPlayer(tradeeUUID);
-            Item item = tradee.getWorld().dropItem(tradee.getLocation(), tradeeItemStack);
-            item.setMetadata("p-protected", new FixedMetadataValue(plugin, tradee.getUniqueId()));
+        // Resolve both sides once, either may be null if they are no longer online
+        Player trader = getTrader();
+        Player tradee = getTradee();
+
+        List<ItemStack> traderItemStacks = getTraderItemStacks();
+        List<ItemStack> tradeeItemStacks = getTradeeItemStacks();
+
+        recordHistory(TradeJournal.OUTCOME_CANCELLED, trader, tradee, traderItemStacks, tradeeItemStacks);
+        audit(AuditLog.Event.CANCEL, AuditLog.SIDE_NONE, 0);
+
+        giveItems(trader, traderUUID, traderItemStacks);
+        giveItems(tradee, tradeeUUID, tradeeItemStacks);
+
+        plugin.getMessageCatalogue().send(trader, Message.TRADE_CANCELLED);
+        plugin.getMessageCatalogue().send(tradee, Message.TRADE_CANCELLED);
+
+        if(journalId >= 0) {
+            plugin.getTradeJournal().recordSettled(journalId, TradeJournal.OUTCOME_CANCELLED);
         }
 
-        plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(traderUUID), true, plugin.getLanguage().getMessage("tradeCancelled"));
-        plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(tradeeUUID), true, plugin.getLanguage().getMessage("tradeCancelled"));
+        plugin.getTradeMetrics().increment(TradeMetrics.Counter.CANCELLED);
 
-        plugin.removeActiveTrade(this);
+        plugin.getTradeRegistry().unregister(this);
+        plugin.getTradeScheduler().cancelAll(this);
+        plugin.getMenuUpdateBatcher().discard(this);
+        release();
     }
 
     /**
      * Called to complete the trade
      */
     public void completeTrade() {
-        if(!isTradeComplete()) {return;}
+        // Offer changes reset readiness as they happen, this only catches one that slipped past
+        if(state == TradeState.COUNTDOWN && countdownOfferVersion != getOfferVersion()) {
+            resetReadiness();
+            return;
+        }
 
-        final List<HumanEntity> viewers = inventory.getViewers();
+        if(!transition(TradeState.Event.COMPLETE)) {return;}
 
-        plugin.getServer().getScheduler().runTaskLater(plugin, new Runnable() {
+        awaitHolds();
+    }
+
+    private void awaitHolds() {
+        if(state != TradeState.SETTLING) {return;}
+
+        // Money is shown in the offer before it is withdrawn, so nothing is paid or handed out until every withdrawal has settled
+        Runnable retry = new Runnable() {
             @Override
             public void run() {
-                for (HumanEntity humanEntity : viewers) {
-                    humanEntity.closeInventory();
-                }
+                awaitHolds();
             }
-        }, 1);
+        };
+
+        if(traderEscrow != null && traderEscrow.hasPendingHolds()) {
+            traderEscrow.whenHoldsSettled(retry);
+            return;
+        }
+
+        if(tradeeEscrow != null && tradeeEscrow.hasPendingHolds()) {
+            tradeeEscrow.whenHoldsSettled(retry);
+            return;
+        }
+
+        if(holdFailed) {
+            // Part of the money offered could not be withdrawn, so the other side is not paid short for their items
+            transition(TradeState.Event.CANCEL);
+            settleCancelled();
+            return;
+        }
+
+        settleCompleted();
+    }
+
+    private void settleCompleted() {
+        if(traderEscrow != null) {
+            plugin.getEconomyPipeline().release(traderEscrow, plugin.getServer().getOfflinePlayer(getTradeeUUID()), newPayoutFailedCallback(plugin, getTradeeUUID()));
+        }
+
+        if(tradeeEscrow != null) {
+            plugin.getEconomyPipeline().release(tradeeEscrow, plugin.getServer().getOfflinePlayer(getTraderUUID()), newPayoutFailedCallback(plugin, getTraderUUID()));
+        }
+
+        // Resolve both sides once, either may be null if they are no longer online
+        Player trader = getTrader();
+        Player tradee = getTradee();
 
         if(traderMoney > 0) {
-            plugin.getEconomy().depositPlayer(plugin.getServer().getPlayer(tradeeUUID), tradeeMoney);
-            plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(tradeeUUID), true, plugin.getLanguage().getMessage("tradeReceivedMoney").replace("{amount}", formatCurrency(traderMoney)));
+            plugin.getMessageCatalogue().send(tradee, Message.TRADE_RECEIVED_MONEY, null, traderMoney);
         }
 
         if(tradeeMoney > 0) {
-            plugin.getEconomy().depositPlayer(plugin.getServer().getPlayer(traderUUID), traderMoney);
-            plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(traderUUID), true, plugin.getLanguage().getMessage("tradeReceivedMoney").replace("{amount}", formatCurrency(tradeeMoney)));
+            plugin.getMessageCatalogue().send(trader, Message.TRADE_RECEIVED_MONEY, null, tradeeMoney);
         }
 
-        HashMap<Integer, ItemStack> remainingTraderStacks = plugin.getServer().getPlayer(tradeeUUID).getInventory().addItem(getTraderItemStacks().toArray(new ItemStack[]{}));
-        HashMap<Integer, ItemStack> remainingTradeeStacks = plugin.getServer().getPlayer(traderUUID).getInventory().addItem(getTradeeItemStacks().toArray(new ItemStack[]{}));
+        List<ItemStack> traderItemStacks = getTraderItemStacks();
+        List<ItemStack> tradeeItemStacks = getTradeeItemStacks();
+
+        recordHistory(TradeJournal.OUTCOME_COMPLETED, trader, tradee, traderItemStacks, tradeeItemStacks);
+        audit(AuditLog.Event.COMPLETE, AuditLog.SIDE_NONE, 0);
 
-        for (ItemStack traderItemStack : remainingTraderStacks.values()) {
-            Player tradee = plugin.getServer().getPlayer(tradeeUUID);
-            Item item = tradee.getWorld().dropItem(tradee.getLocation(), traderItemStack);
-            item.setMetadata("p-protected", new FixedMetadataValue(plugin, tradee.getUniqueId()));
+        if(giveItems(tradee, tradeeUUID, traderItemStacks)) {
+            plugin.getMessageCatalogue().send(tradee, Message.TRADE_ITEMS_DROPPED);
         }
 
-        for (ItemStack tradeeItemStack : remainingTradeeStacks.values()) {
-            Player trader = plugin.getServer().getPlayer(traderUUID);
-            Item item = trader.getWorld().dropItem(trader.getLocation(), tradeeItemStack);
-            item.setMetadata("p-protected", new FixedMetadataValue(plugin, trader.getUniqueId()));
+        if(giveItems(trader, traderUUID, tradeeItemStacks)) {
+            plugin.getMessageCatalogue().send(trader, Message.TRADE_ITEMS_DROPPED);
         }
 
-        if(remainingTraderStacks.size() > 0) {
-            plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(traderUUID), true, plugin.getLanguage().getMessage("tradeItemsDropped"));
+        plugin.getMessageCatalogue().send(trader, Message.TRADE_COMPLETE);
+        plugin.getMessageCatalogue().send(tradee, Message.TRADE_COMPLETE);
+
+        if(journalId >= 0) {
+            plugin.getTradeJournal().recordSettled(journalId, TradeJournal.OUTCOME_COMPLETED);
         }
 
-        if(remainingTradeeStacks.size() > 0) {
-            plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(tradeeUUID), true, plugin.getLanguage().getMessage("tradeItemsDropped"));
+        plugin.getTradeMetrics().increment(TradeMetrics.Counter.COMPLETED);
+
+        plugin.getTradeRegistry().unregister(this);
+        plugin.getTradeScheduler().cancelAll(this);
+        plugin.getMenuUpdateBatcher().discard(this);
+        release();
+
+        transition(TradeState.Event.SETTLED);
+    }
+
+    private void recordHistory(byte outcome, Player trader, Player tradee, List<ItemStack> traderItemStacks, List<ItemStack> tradeeItemStacks) {
+        if(plugin.getTradeHistory() == null) {return;}
+
+        // Recorded before the items are handed out, handing them out can change the stacks
+        plugin.getTradeHistory().record(openedAt, outcome, traderUUID, getName(trader, traderUUID), tradeeUUID, getName(tradee, tradeeUUID),
+                traderMoney, tradeeMoney, traderItemStacks, tradeeItemStacks);
+    }
+
+    private String getName(Player player, UUID UUID) {
+        if(player != null) {return player.getName();}
+
+        String name = plugin.getServer().getOfflinePlayer(UUID).getName();
+
+        return name == null ? UUID.toString() : name;
+    }
+
+    private void release() {
+        if(inventory == null) {return;}
+
+        final List<HumanEntity> viewers = new ArrayList<HumanEntity>(inventory.getViewers());
+
+        // Every item has been handed out, so nothing may be taken from the inventory while it is still open
+        inventory.clear();
+
+        Runnable closeViewers = new Runnable() {
+            @Override
+            public void run() {
+                for(HumanEntity viewer: viewers) {
+                    // The viewer may have opened something else in the meantime
+                    if(viewer.getOpenInventory().getTopInventory().getHolder() != TradeMenu.this) {continue;}
+
+                    viewer.closeInventory();
+                }
+            }
+        };
+
+        // Tasks can not be scheduled while the plugin is disabling, and there is no next tick to wait for
+        if(plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTaskLater(plugin, closeViewers, 1);
+        } else {
+            closeViewers.run();
         }
 
-        plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(traderUUID), true, plugin.getLanguage().getMessage("tradeComplete"));
-        plugin.getMessaging().sendMessage(plugin.getServer().getPlayer(tradeeUUID), true, plugin.getLanguage().getMessage("tradeComplete"));
-        plugin.removeActiveTrade(this);
+        inventory = null;
+        Arrays.fill(menuItems, null);
+        traderPages = null;
+        tradeePages = null;
+        journaledItems = null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,120 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.menu;
+
+/**
+ * Where a trade is in its life, the source of truth for readiness with the readiness wool only rendering it.
+ * Every state and event pair maps to at most one next state through a table, so a transition is one array lookup
+ * and events that make no sense in the current state, such as completing a cancelled trade, are rejected.
+ */
+public enum TradeState {
+    REQUESTED,
+    OPEN,
+    TRADER_READY,
+    TRADEE_READY,
+    COUNTDOWN,
+    SETTLING,
+    DONE,
+    CANCELLED;
+
+    public enum Event {
+        ACCEPT,
+        TRADER_READY,
+        TRADER_UNREADY,
+        TRADEE_READY,
+        TRADEE_UNREADY,
+        COMPLETE,
+        SETTLED,
+        CANCEL
+    }
+
+    // State ordinal then event ordinal to the next state, null when the event is not allowed
+    private static final TradeState[][] TRANSITIONS = new TradeState[values().length][Event.values().length];
+
+    static {
+        allow(REQUESTED, Event.ACCEPT, OPEN);
+
+        allow(OPEN, Event.TRADER_READY, TRADER_READY);
+        allow(OPEN, Event.TRADEE_READY, TRADEE_READY);
+
+        allow(TRADER_READY, Event.TRADER_UNREADY, OPEN);
+        allow(TRADER_READY, Event.TRADEE_READY, COUNTDOWN);
+
+        allow(TRADEE_READY, Event.TRADEE_UNREADY, OPEN);
+        allow(TRADEE_READY, Event.TRADER_READY, COUNTDOWN);
+
+        allow(COUNTDOWN, Event.TRADER_UNREADY, TRADEE_READY);
+        allow(COUNTDOWN, Event.TRADEE_UNREADY, TRADER_READY);
+        allow(COUNTDOWN, Event.COMPLETE, SETTLING);
+
+        allow(SETTLING, Event.SETTLED, DONE);
+
+        // Settling waits for money still being withdrawn, until that is done the trade can still be called off
+        allow(SETTLING, Event.CANCEL, CANCELLED);
+
+        // Anything not already settling can be cancelled
+        for(TradeState state: values()) {
+            if(!state.isSettled()) {
+                allow(state, Event.CANCEL, CANCELLED);
+            }
+        }
+    }
+
+    private static void allow(TradeState from, Event event, TradeState to) {
+        TRANSITIONS[from.ordinal()][event.ordinal()] = to;
+    }
+
+    /**
+     * Returns the state an event moves this state to
+     * @param event the event to apply
+     * @return the next state or null if the event is not allowed in this state
+     */
+    public TradeState next(Event event) {
+        return TRANSITIONS[ordinal()][event.ordinal()];
+    }
+
+    /**
+     * Returns if the trader has marked themselves ready
+     * @return if the trader has marked themselves ready
+     */
+    public boolean isTraderReady() {
+        return this == TRADER_READY || this == COUNTDOWN;
+    }
+
+    /**
+     * Returns if the tradee has marked themselves ready
+     * @return if the tradee has marked themselves ready
+     */
+    public boolean isTradeeReady() {
+        return this == TRADEE_READY || this == COUNTDOWN;
+    }
+
+    /**
+     * Returns if the trade is settling or has settled, after which nothing in it may change
+     * @return if the trade is settling or has settled
+     */
+    public boolean isSettled() {
+        return this == SETTLING || this == DONE || this == CANCELLED;
+    }
+}
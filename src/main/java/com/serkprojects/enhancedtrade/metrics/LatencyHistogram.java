@@ -0,0 +1,136 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.metrics;
+
+/**
+ * Fixed size latency histogram with log-linear buckets in the style of HdrHistogram.
+ * Each power of two is split into eight buckets so recorded values keep within 12.5% of their true value,
+ * recording never allocates. Values past the last bucket are clamped into it.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKETS - 1;
+
+    // Largest tracked power of two, 2^40 nanoseconds is a little over 18 minutes
+    private static final int MAX_EXPONENT = 40;
+
+    private long[] counts = new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /**
+     * Records a value
+     * @param value the value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if(value < 0) {value = 0;}
+
+        counts[indexFor(value)]++;
+        count++;
+        sum += value;
+
+        if(value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Returns the number of recorded values
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of every recorded value
+     * @return the sum of every recorded value
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the largest recorded value
+     * @return the largest recorded value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value at a percentile, accurate to the bucket it falls in
+     * @param percentile the percentile between 0 and 1
+     * @return the lower bound of the bucket holding the percentile or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        if(count == 0) {return 0;}
+
+        long target = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+
+            if(seen >= target) {
+                return Math.min(lowerBoundOf(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Clears every recorded value
+     */
+    public void reset() {
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    private static int indexFor(long value) {
+        if(value < SUB_BUCKETS) {return (int) value;}
+
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int subBucket = exponent == MAX_EXPONENT && value >= (1L << (MAX_EXPONENT + 1)) ? SUB_BUCKET_MASK : (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBoundOf(int index) {
+        if(index < SUB_BUCKETS) {return index;}
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index & SUB_BUCKET_MASK;
+
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
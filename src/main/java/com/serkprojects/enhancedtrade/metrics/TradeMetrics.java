@@ -0,0 +1,176 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.metrics;
+
+/**
+ * Handler latency histograms and trade counters.
+ * Everything is recorded on the main thread apart from economy calls, which are only recorded by the economy worker,
+ * so readers on other threads may see slightly stale values.
+ */
+public class TradeMetrics {
+    public enum Handler {
+        INVENTORY_CLICK,
+        PLAYER_QUIT,
+        PLAYER_KICK,
+        COMMAND_REQUEST,
+        COMMAND_ACCEPT,
+        COMMAND_DENY,
+        COMMAND_OPEN,
+        COMMAND_HISTORY,
+        SCHEDULER_TICK,
+        MENU_FLUSH,
+        ECONOMY_CALL
+    }
+
+    public enum Counter {
+        REQUESTED,
+        ACCEPTED,
+        DENIED,
+        CANCELLED,
+        COMPLETED,
+        TIMED_OUT,
+        WITHDRAWN,
+        RATE_LIMITED,
+        ITEMS_DROPPED,
+        AUDIT_DROPPED
+    }
+
+    private LatencyHistogram[] histograms = null;
+    private long[] counters = null;
+    private long startedAt = 0;
+
+    /**
+     * Creates an instance of the trade metrics
+     */
+    public TradeMetrics() {
+        histograms = new LatencyHistogram[Handler.values().length];
+
+        for(int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+
+        counters = new long[Counter.values().length];
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Records how long a handler took
+     * @param handler the handler that ran
+     * @param startNanos the System.nanoTime() the handler started at
+     */
+    public void recordSince(Handler handler, long startNanos) {
+        histograms[handler.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Increments a counter by one
+     * @param counter the counter to increment
+     */
+    public void increment(Counter counter) {
+        counters[counter.ordinal()]++;
+    }
+
+    /**
+     * Increments a counter
+     * @param counter the counter to increment
+     * @param amount the amount to increment by
+     */
+    public void increment(Counter counter, long amount) {
+        counters[counter.ordinal()] += amount;
+    }
+
+    /**
+     * Returns the latency histogram for a handler in nanoseconds
+     * @param handler the handler
+     * @return the latency histogram for the handler
+     */
+    public LatencyHistogram getHistogram(Handler handler) {
+        return histograms[handler.ordinal()];
+    }
+
+    /**
+     * Returns the value of a counter
+     * @param counter the counter
+     * @return the value of the counter
+     */
+    public long getCounter(Counter counter) {
+        return counters[counter.ordinal()];
+    }
+
+    /**
+     * Returns when recording started
+     * @return the time in milliseconds recording started
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format
+     * @return the rendered metrics
+     */
+    public String toPrometheusText() {
+        StringBuilder builder = new StringBuilder(4096);
+
+        builder.append("# HELP enhancedtrade_handler_seconds Time spent in EnhancedTrade handlers\n");
+        builder.append("# TYPE enhancedtrade_handler_seconds summary\n");
+
+        for(Handler handler: Handler.values()) {
+            LatencyHistogram histogram = getHistogram(handler);
+            String label = "handler=\"" + handler.name().toLowerCase() + "\"";
+
+            appendQuantile(builder, label, "0.5", histogram.getPercentile(0.5));
+            appendQuantile(builder, label, "0.99", histogram.getPercentile(0.99));
+            appendQuantile(builder, label, "1", histogram.getMax());
+            builder.append("enhancedtrade_handler_seconds_sum{").append(label).append("} ").append(histogram.getSum() / 1e9).append('\n');
+            builder.append("enhancedtrade_handler_seconds_count{").append(label).append("} ").append(histogram.getCount()).append('\n');
+        }
+
+        builder.append("# HELP enhancedtrade_trades_total Trades by what happened to them\n");
+        builder.append("# TYPE enhancedtrade_trades_total counter\n");
+
+        for(Counter counter: Counter.values()) {
+            // Counters that are not something happening to a trade get their own metric so the outcomes sum up
+            if(counter == Counter.ITEMS_DROPPED || counter == Counter.RATE_LIMITED || counter == Counter.AUDIT_DROPPED) {continue;}
+
+            builder.append("enhancedtrade_trades_total{event=\"").append(counter.name().toLowerCase()).append("\"} ").append(getCounter(counter)).append('\n');
+        }
+
+        appendCounter(builder, "enhancedtrade_items_dropped_total", "Items dropped at a player's feet because their inventory was full", Counter.ITEMS_DROPPED);
+        appendCounter(builder, "enhancedtrade_requests_rate_limited_total", "Trade requests refused because the sender was sending them too quickly", Counter.RATE_LIMITED);
+        appendCounter(builder, "enhancedtrade_audit_dropped_total", "Audit events dropped because the audit writer had fallen behind", Counter.AUDIT_DROPPED);
+
+        return builder.toString();
+    }
+
+    private void appendCounter(StringBuilder builder, String name, String help, Counter counter) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(" counter\n");
+        builder.append(name).append(' ').append(getCounter(counter)).append('\n');
+    }
+
+    private void appendQuantile(StringBuilder builder, String label, String quantile, long nanos) {
+        builder.append("enhancedtrade_handler_seconds{").append(label).append(",quantile=\"").append(quantile).append("\"} ").append(nanos / 1e9).append('\n');
+    }
+}
@@ -0,0 +1,423 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.settings;
+
+import com.serkprojects.enhancedtrade.menu.SlotRole;
+import com.serkprojects.enhancedtrade.menu.TradeLayout;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable, typed snapshot of the plugin config.
+ * A new snapshot is loaded on enable and reload and swapped in whole, so readers never see a half loaded config.
+ */
+public class TradeSettings {
+    private static final String ENTRY_HEADER = "settings.trade.interface.entry.";
+
+    private static final String[] ENTRIES = {"toggleReadinessTrader", "toggleReadinessTradee", "tradeInfo", "remindPlayer",
+            "addOneCurrency", "removeOneCurrency", "addTenCurrency", "removeTenCurrency", "cancelTrade", "previousPage", "nextPage"};
+
+    // Journaled slots are keyed by page and slot in a short
+    private static final int MAX_PAGES = 64;
+
+    // Inventory titles longer than this are rejected by the client
+    private static final int MAX_MENU_TITLE_LENGTH = 32;
+
+    private final String permissionPrefix;
+    private final String messagePrefix;
+    private final long metricsDumpTicks;
+    private final long historyRetentionMillis;
+    private final boolean auditEnabled;
+    private final long auditRotateBytes;
+    private final long auditRotateMillis;
+    private final long cancelTicks;
+    private final int tickDownCounter;
+    private final boolean allowCreativeTrading;
+    private final long dropProtectionMillis;
+    private final int maxPendingRequests;
+    private final int requestBurst;
+    private final long requestRefillMillis;
+    private final String menuTitle;
+    private final TradeLayout layout;
+    private final int pages;
+    private final THashMap<String, String> entryNames;
+    private final THashMap<String, List<String>> entryLores;
+
+    private TradeSettings(ConfigurationSection config, List<String> errors, Set<String> invalidPaths) {
+        String configPermissionPrefix = config.getString("settings.permissionPrefix");
+        permissionPrefix = configPermissionPrefix == null ? "" : configPermissionPrefix;
+
+        if(permissionPrefix.isEmpty()) {
+            reject(errors, invalidPaths, "settings.permissionPrefix", "must not be empty");
+        }
+
+        messagePrefix = color(config.getString("settings.prefix"));
+
+        long metricsDumpInterval = config.getLong("settings.metrics.dumpInterval");
+
+        if(metricsDumpInterval < 0) {
+            reject(errors, invalidPaths, "settings.metrics.dumpInterval", "must be 0 or more seconds, got " + metricsDumpInterval);
+        }
+
+        metricsDumpTicks = metricsDumpInterval * 20;
+
+        double historyRetentionDays = config.getDouble("settings.history.retentionDays");
+
+        if(historyRetentionDays < 0) {
+            reject(errors, invalidPaths, "settings.history.retentionDays", "must be 0 or more days, got " + config.getString("settings.history.retentionDays"));
+        }
+
+        historyRetentionMillis = (long) (historyRetentionDays * 86400000L);
+
+        auditEnabled = config.getBoolean("settings.audit.enabled");
+
+        double auditRotateSize = config.getDouble("settings.audit.rotateSize");
+
+        if(auditRotateSize <= 0) {
+            reject(errors, invalidPaths, "settings.audit.rotateSize", "must be more than 0 MB, got " + config.getString("settings.audit.rotateSize"));
+        }
+
+        auditRotateBytes = Math.max(1, (long) (auditRotateSize * 1048576L));
+
+        double auditRotateHours = config.getDouble("settings.audit.rotateTime");
+
+        if(auditRotateHours <= 0) {
+            reject(errors, invalidPaths, "settings.audit.rotateTime", "must be more than 0 hours, got " + config.getString("settings.audit.rotateTime"));
+        }
+
+        auditRotateMillis = Math.max(1, (long) (auditRotateHours * 3600000L));
+
+        double cancelTime = config.getDouble("settings.trade.cancelTime");
+
+        if(cancelTime <= 0) {
+            reject(errors, invalidPaths, "settings.trade.cancelTime", "must be more than 0 minutes, got " + config.getString("settings.trade.cancelTime"));
+        }
+
+        cancelTicks = Math.max(1, (long) (cancelTime * 1200));
+
+        tickDownCounter = config.getInt("settings.trade.tickDownCounter");
+
+        // The countdown is shown as item amounts so it has to fit in a stack
+        if(tickDownCounter < 1 || tickDownCounter > 64) {
+            reject(errors, invalidPaths, "settings.trade.tickDownCounter", "must be between 1 and 64 seconds, got " + config.getString("settings.trade.tickDownCounter"));
+        }
+
+        allowCreativeTrading = config.getBoolean("settings.trade.allowCreativeTrading");
+
+        double dropProtectionTime = config.getDouble("settings.trade.dropProtectionTime");
+
+        if(dropProtectionTime < 0) {
+            reject(errors, invalidPaths, "settings.trade.dropProtectionTime", "must be 0 or more seconds, got " + config.getString("settings.trade.dropProtectionTime"));
+        }
+
+        dropProtectionMillis = (long) (dropProtectionTime * 1000);
+
+        maxPendingRequests = config.getInt("settings.trade.requests.maxPending");
+
+        if(maxPendingRequests < 1) {
+            reject(errors, invalidPaths, "settings.trade.requests.maxPending", "must be 1 or more, got " + config.getString("settings.trade.requests.maxPending"));
+        }
+
+        requestBurst = config.getInt("settings.trade.requests.burst");
+
+        if(requestBurst < 1) {
+            reject(errors, invalidPaths, "settings.trade.requests.burst", "must be 1 or more, got " + config.getString("settings.trade.requests.burst"));
+        }
+
+        double refillTime = config.getDouble("settings.trade.requests.refillTime");
+
+        if(refillTime < 0) {
+            reject(errors, invalidPaths, "settings.trade.requests.refillTime", "must be 0 or more seconds, got " + config.getString("settings.trade.requests.refillTime"));
+        }
+
+        requestRefillMillis = (long) (refillTime * 1000);
+
+        menuTitle = color(config.getString("settings.trade.interface.name"));
+
+        if(menuTitle.length() > MAX_MENU_TITLE_LENGTH) {
+            reject(errors, invalidPaths, "settings.trade.interface.name", "must be at most " + MAX_MENU_TITLE_LENGTH + " characters including color codes, got " + menuTitle.length());
+        }
+
+        List<String> layoutRows = config.isList("settings.trade.interface.layout") ? config.getStringList("settings.trade.interface.layout") : TradeLayout.DEFAULT_ROWS;
+        TradeLayout tradeLayout = null;
+
+        try {
+            tradeLayout = new TradeLayout(layoutRows);
+        } catch (IllegalArgumentException ex) {
+            reject(errors, invalidPaths, "settings.trade.interface.layout", ex.getMessage());
+        }
+
+        layout = tradeLayout;
+
+        pages = config.getInt("settings.trade.interface.pages");
+
+        if(pages < 1 || pages > MAX_PAGES) {
+            reject(errors, invalidPaths, "settings.trade.interface.pages", "must be between 1 and " + MAX_PAGES + ", got " + config.getString("settings.trade.interface.pages"));
+        } else if(pages > 1 && layout != null && (!layout.hasButton(SlotRole.PREVIOUS_PAGE) || !layout.hasButton(SlotRole.NEXT_PAGE))) {
+            reject(errors, invalidPaths, "settings.trade.interface.pages", "needs '<' and '>' page buttons in settings.trade.interface.layout when it is more than 1");
+        }
+
+        entryNames = new THashMap<String, String>();
+        entryLores = new THashMap<String, List<String>>();
+
+        for(String entry: ENTRIES) {
+            if(!config.isString(ENTRY_HEADER + entry + ".name")) {
+                reject(errors, invalidPaths, ENTRY_HEADER + entry + ".name", "must be set");
+            }
+
+            entryNames.put(entry, color(config.getString(ENTRY_HEADER + entry + ".name")));
+
+            List<String> loreList = new ArrayList<String>();
+
+            for(String loreString: config.getStringList(ENTRY_HEADER + entry + ".lore")) {
+                loreList.add(color(loreString));
+            }
+
+            entryLores.put(entry, Collections.unmodifiableList(loreList));
+        }
+    }
+
+    /**
+     * Loads and validates a settings snapshot
+     * @param config the config to load from
+     * @return the loaded settings
+     * @throws IllegalArgumentException if any value is invalid, listing every bad value
+     */
+    public static TradeSettings load(ConfigurationSection config) {
+        List<String> errors = new ArrayList<String>();
+        TradeSettings tradeSettings = new TradeSettings(config, errors, new THashSet<String>());
+
+        if(!errors.isEmpty()) {
+            StringBuilder builder = new StringBuilder("Invalid config values:");
+
+            for(String error: errors) {
+                builder.append("\n - ").append(error);
+            }
+
+            throw new IllegalArgumentException(builder.toString());
+        }
+
+        return tradeSettings;
+    }
+
+    /**
+     * Loads a settings snapshot, using the config's defaults in place of only the values that are invalid
+     * @param config the config to load from, with the bundled config as its defaults
+     * @return the loaded settings
+     * @throws IllegalArgumentException if the defaults themselves are invalid
+     */
+    public static TradeSettings loadReplacingInvalid(Configuration config) {
+        Set<String> invalidPaths = new THashSet<String>();
+        new TradeSettings(config, new ArrayList<String>(), invalidPaths);
+
+        // Every valid value is kept, the invalid ones are left out so they fall through to the defaults
+        MemoryConfiguration replaced = new MemoryConfiguration();
+
+        for(String key: config.getKeys(true)) {
+            if(config.isConfigurationSection(key) || invalidPaths.contains(key)) {continue;}
+
+            replaced.set(key, config.get(key));
+        }
+
+        if(config.getDefaults() != null) {
+            replaced.setDefaults(config.getDefaults());
+        }
+
+        return load(replaced);
+    }
+
+    /**
+     * Returns the prefix used for permissions
+     * @return the prefix used for permissions
+     */
+    public String getPermissionPrefix() {
+        return permissionPrefix;
+    }
+
+    /**
+     * Returns the colored prefix put before messages
+     * @return the colored prefix put before messages, with {name} left for the plugin name
+     */
+    public String getMessagePrefix() {
+        return messagePrefix;
+    }
+
+    /**
+     * Returns how often metrics are dumped to a file
+     * @return the ticks between metrics dumps, 0 if dumps are disabled
+     */
+    public long getMetricsDumpTicks() {
+        return metricsDumpTicks;
+    }
+
+    /**
+     * Returns how long settled trades are kept in the trade history
+     * @return the milliseconds settled trades are kept for, 0 if they are kept forever
+     */
+    public long getHistoryRetentionMillis() {
+        return historyRetentionMillis;
+    }
+
+    /**
+     * Returns if money clicks, readiness toggles, cancellations and completions are written to the audit log
+     * @return if the audit log is enabled
+     */
+    public boolean isAuditEnabled() {
+        return auditEnabled;
+    }
+
+    /**
+     * Returns how large the audit log can grow before it is rotated
+     * @return the bytes the audit log is rotated at
+     */
+    public long getAuditRotateBytes() {
+        return auditRotateBytes;
+    }
+
+    /**
+     * Returns how long the audit log is written to before it is rotated
+     * @return the milliseconds the audit log is rotated after
+     */
+    public long getAuditRotateMillis() {
+        return auditRotateMillis;
+    }
+
+    /**
+     * Returns how long a trade request can idle for before being cancelled
+     * @return the ticks a trade request can idle for
+     */
+    public long getCancelTicks() {
+        return cancelTicks;
+    }
+
+    /**
+     * Returns how many seconds players have to unready before a trade completes
+     * @return the seconds players have to unready before a trade completes
+     */
+    public int getTickDownCounter() {
+        return tickDownCounter;
+    }
+
+    /**
+     * Returns whether players in creative are allowed to trade
+     * @return whether players in creative are allowed to trade
+     */
+    public boolean isCreativeTradingAllowed() {
+        return allowCreativeTrading;
+    }
+
+    /**
+     * Returns how long items dropped because they did not fit can only be picked up by their owner
+     * @return the milliseconds dropped items are protected for, 0 if they are not protected
+     */
+    public long getDropProtectionMillis() {
+        return dropProtectionMillis;
+    }
+
+    /**
+     * Returns how many trade requests can wait on one player at a time
+     * @return how many trade requests can wait on one player at a time
+     */
+    public int getMaxPendingRequests() {
+        return maxPendingRequests;
+    }
+
+    /**
+     * Returns how many trade requests a player can make in a row before being rate limited
+     * @return how many trade requests a player can make in a row
+     */
+    public int getRequestBurst() {
+        return requestBurst;
+    }
+
+    /**
+     * Returns how long it takes a player to earn back one trade request
+     * @return the milliseconds it takes to earn back one trade request, 0 if requests are not rate limited
+     */
+    public long getRequestRefillMillis() {
+        return requestRefillMillis;
+    }
+
+    /**
+     * Returns the colored title used for trade menus
+     * @return the colored title used for trade menus
+     */
+    public String getMenuTitle() {
+        return menuTitle;
+    }
+
+    /**
+     * Returns the layout used for trade menus
+     * @return the layout used for trade menus
+     */
+    public TradeLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns how many pages of items each side of a trade has
+     * @return how many pages of items each side of a trade has
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * Returns the colored name of a menu entry
+     * @param entry the config name of the entry
+     * @return the colored name of the entry
+     */
+    public String getEntryName(String entry) {
+        return entryNames.get(entry);
+    }
+
+    /**
+     * Returns the colored lore of a menu entry
+     * @param entry the config name of the entry
+     * @return the colored lore of the entry, empty if it has none
+     */
+    public List<String> getEntryLore(String entry) {
+        return entryLores.get(entry);
+    }
+
+    private static void reject(List<String> errors, Set<String> invalidPaths, String path, String message) {
+        errors.add(path + " " + message);
+        invalidPaths.add(path);
+    }
+
+    private static String color(String string) {
+        if(string == null) {return "";}
+
+        return ChatColor.translateAlternateColorCodes('&', string);
+    }
+}
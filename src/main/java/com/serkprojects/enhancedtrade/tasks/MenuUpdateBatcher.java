@@ -23,52 +23,55 @@
 
 package com.serkprojects.enhancedtrade.tasks;
 
-import com.serkprojects.enhancedtrade.EnhancedTrade;
 import com.serkprojects.enhancedtrade.menu.TradeMenu;
-import gnu.trove.map.hash.THashMap;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
 import gnu.trove.set.hash.THashSet;
 import org.bukkit.scheduler.BukkitRunnable;
 
-public class TradeCancelTask extends BukkitRunnable {
-    private EnhancedTrade plugin = null;
-    private THashMap<TradeMenu, Integer> tradesCounterMap = null;
+/**
+ * Flushes staged trade menu item changes once per tick, so several changes to a menu within a tick cost one write per changed slot
+ */
+public class MenuUpdateBatcher extends BukkitRunnable {
+    private TradeMetrics tradeMetrics = null;
+    private THashSet<TradeMenu> dirtyMenus = null;
 
-    public TradeCancelTask(EnhancedTrade plugin) {
-        this.plugin = plugin;
-        tradesCounterMap = new THashMap<TradeMenu, Integer>();
+    /**
+     * Creates an instance of the menu update batcher
+     * @param tradeMetrics the metrics to record flushes to
+     */
+    public MenuUpdateBatcher(TradeMetrics tradeMetrics) {
+        this.tradeMetrics = tradeMetrics;
+        dirtyMenus = new THashSet<TradeMenu>();
     }
 
     @Override
     public void run() {
-        THashSet<TradeMenu> menusToCancel = new THashSet<TradeMenu>();
+        if(dirtyMenus.isEmpty()) {return;}
 
-        for(TradeMenu tradeMenu: tradesCounterMap.keySet()) {
-            if(tradesCounterMap.get(tradeMenu) >= plugin.getConfig().getInt("settings.trade.cancelTime")) {
-                menusToCancel.add(tradeMenu);
-            } else {
-                tradesCounterMap.put(tradeMenu, tradesCounterMap.get(tradeMenu) + 1);
-            }
-        }
+        long start = System.nanoTime();
 
-        for(TradeMenu tradeMenu: menusToCancel) {
-            tradeMenu.cancelTrade();
-            plugin.removeActiveTrade(tradeMenu);
+        for(TradeMenu tradeMenu: dirtyMenus) {
+            tradeMenu.flushMenuItems();
+            tradeMenu.flushJournal();
         }
+
+        dirtyMenus.clear();
+        tradeMetrics.recordSince(TradeMetrics.Handler.MENU_FLUSH, start);
     }
 
     /**
-     * Adds a trade to start counting for
-     * @param tradeMenu the trade menu to add
+     * Marks a trade menu as having staged changes or changed items to flush on the next tick
+     * @param tradeMenu the trade menu with staged changes
      */
-    public void addTradeCounter(TradeMenu tradeMenu) {
-        tradesCounterMap.put(tradeMenu, 0);
+    public void markDirty(TradeMenu tradeMenu) {
+        dirtyMenus.add(tradeMenu);
     }
 
     /**
-     * Removes a trade trade from counting
-     * @param tradeMenu the trade menu to stop counting for
+     * Drops any staged changes for a trade menu
+     * @param tradeMenu the trade menu to drop
      */
-    public void removeTradeCounter(TradeMenu tradeMenu) {
-        tradesCounterMap.remove(tradeMenu);
+    public void discard(TradeMenu tradeMenu) {
+        dirtyMenus.remove(tradeMenu);
     }
 }
@@ -0,0 +1,83 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.tasks;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+
+public class MetricsDumpTask extends BukkitRunnable {
+    private EnhancedTrade plugin = null;
+    private File file = null;
+
+    /**
+     * Creates an instance of the metrics dump task
+     * @param plugin the plugin to pull metrics from
+     * @param file the file to dump metrics to
+     */
+    public MetricsDumpTask(EnhancedTrade plugin, File file) {
+        this.plugin = plugin;
+        this.file = file;
+    }
+
+    @Override
+    public void run() {
+        // Metrics are rendered on the main thread where they are recorded and written out asynchronously
+        final String text = plugin.getTradeMetrics().toPrometheusText();
+
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+            @Override
+            public void run() {
+                write(text);
+            }
+        });
+    }
+
+    private void write(String text) {
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), Charset.forName("UTF-8"));
+
+            try {
+                writer.write(text);
+            } finally {
+                writer.close();
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.WARNING, "Could not dump trade metrics to " + file, ex);
+        }
+    }
+}
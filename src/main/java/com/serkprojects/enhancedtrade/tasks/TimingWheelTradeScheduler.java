@@ -0,0 +1,308 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.tasks;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.trade.TradeRequest;
+import gnu.trove.map.hash.THashMap;
+import org.bukkit.Sound;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Trade scheduler backed by a two level timing wheel that runs every tick.
+ * The fine wheel holds timers due within the next 256 ticks, the coarse wheel holds later timers in 256 tick buckets
+ * which are cascaded into the fine wheel as it wraps. Each tick only touches the timers that are due.
+ */
+public class TimingWheelTradeScheduler extends BukkitRunnable implements TradeScheduler {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final long TICKS_PER_SECOND = 20;
+
+    private EnhancedTrade plugin = null;
+    private TradeMetrics tradeMetrics = null;
+
+    private Timer[] fineWheel = null;
+    private Timer[] coarseWheel = null;
+
+    // The next tick to be processed
+    private long currentTick = 0;
+    private boolean ticking = false;
+
+    private THashMap<TradeMenu, Timer> countdownTimers = null;
+    private THashMap<TradeRequest, Timer> requestTimers = null;
+
+    /**
+     * Creates an instance of the timing wheel trade scheduler
+     * @param plugin the plugin to run under
+     * @param tradeMetrics the metrics to record ticks to
+     */
+    public TimingWheelTradeScheduler(EnhancedTrade plugin, TradeMetrics tradeMetrics) {
+        this.plugin = plugin;
+        this.tradeMetrics = tradeMetrics;
+
+        fineWheel = newWheel();
+        coarseWheel = newWheel();
+
+        countdownTimers = new THashMap<TradeMenu, Timer>();
+        requestTimers = new THashMap<TradeRequest, Timer>();
+    }
+
+    @Override
+    public void start() {
+        runTaskTimer(plugin, 1, 1);
+    }
+
+    @Override
+    public void stop() {
+        cancel();
+
+        // Unlink through iterators so no bucket keeps a trade alive once the maps are empty
+        for(Iterator<Timer> iterator = countdownTimers.values().iterator(); iterator.hasNext();) {
+            Timer timer = iterator.next();
+            timer.unlink();
+            timer.tradeMenu.setCountdownCounter(0);
+            iterator.remove();
+        }
+
+        for(Iterator<Timer> iterator = requestTimers.values().iterator(); iterator.hasNext();) {
+            iterator.next().unlink();
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        ticking = true;
+
+        if((currentTick & WHEEL_MASK) == 0) {
+            cascade((int) ((currentTick >>> WHEEL_BITS) & WHEEL_MASK));
+        }
+
+        // Move the due bucket aside so timers rescheduled while firing can not land back in it
+        Timer due = new Timer();
+        fineWheel[(int) (currentTick & WHEEL_MASK)].spliceInto(due);
+
+        Timer timer;
+        while((timer = due.next) != due) {
+            timer.unlink();
+
+            if(timer.deadline > currentTick) {
+                schedule(timer);
+            } else {
+                fire(timer);
+            }
+        }
+
+        ticking = false;
+        currentTick++;
+        tradeMetrics.recordSince(TradeMetrics.Handler.SCHEDULER_TICK, start);
+    }
+
+    @Override
+    public void scheduleRequestExpiry(TradeRequest tradeRequest, long delayTicks) {
+        cancelRequestExpiry(tradeRequest);
+
+        Timer timer = new Timer(tradeRequest, deadlineFor(delayTicks));
+        requestTimers.put(tradeRequest, timer);
+        schedule(timer);
+    }
+
+    @Override
+    public void cancelRequestExpiry(TradeRequest tradeRequest) {
+        Timer timer = requestTimers.remove(tradeRequest);
+
+        if(timer != null) {
+            timer.unlink();
+        }
+    }
+
+    @Override
+    public void startCountdown(TradeMenu tradeMenu, int counter) {
+        stopCountdown(tradeMenu);
+
+        Timer timer = new Timer(tradeMenu, deadlineFor(TICKS_PER_SECOND));
+        tradeMenu.setCountdownCounter(counter);
+        countdownTimers.put(tradeMenu, timer);
+        schedule(timer);
+    }
+
+    @Override
+    public void stopCountdown(TradeMenu tradeMenu) {
+        Timer timer = countdownTimers.remove(tradeMenu);
+
+        if(timer != null) {
+            timer.unlink();
+            tradeMenu.setCountdownCounter(0);
+        }
+    }
+
+    @Override
+    public boolean isCountingDown(TradeMenu tradeMenu) {
+        return countdownTimers.containsKey(tradeMenu);
+    }
+
+    @Override
+    public void cancelAll(TradeMenu tradeMenu) {
+        stopCountdown(tradeMenu);
+    }
+
+    private void fire(Timer timer) {
+        if(timer.tradeRequest != null) {
+            requestTimers.remove(timer.tradeRequest);
+            plugin.getRequestInbox().expire(timer.tradeRequest);
+            return;
+        }
+
+        TradeMenu tradeMenu = timer.tradeMenu;
+
+        if(tradeMenu.getCountdownCounter() > 0) {
+            tradeMenu.tickCountdown();
+            playSoundToViewers(tradeMenu.getViewers(), Sound.ANVIL_USE);
+        }
+
+        if(tradeMenu.getCountdownCounter() <= 1) {
+            countdownTimers.remove(tradeMenu);
+            tradeMenu.setCountdownCounter(0);
+            tradeMenu.completeTrade();
+            return;
+        }
+
+        timer.deadline = deadlineFor(TICKS_PER_SECOND);
+        schedule(timer);
+    }
+
+    private void cascade(int coarseSlot) {
+        Timer cascading = new Timer();
+        coarseWheel[coarseSlot].spliceInto(cascading);
+
+        Timer timer;
+        while((timer = cascading.next) != cascading) {
+            timer.unlink();
+            schedule(timer);
+        }
+    }
+
+    private void schedule(Timer timer) {
+        long delta = timer.deadline - currentTick;
+
+        if(delta < WHEEL_SIZE) {
+            fineWheel[(int) (timer.deadline & WHEEL_MASK)].append(timer);
+        } else if(delta < (long) WHEEL_SIZE * WHEEL_SIZE) {
+            coarseWheel[(int) ((timer.deadline >>> WHEEL_BITS) & WHEEL_MASK)].append(timer);
+        } else {
+            // Too far out for either wheel, park it in the bucket cascaded last so it is revisited a full rotation later
+            coarseWheel[(int) ((currentTick >>> WHEEL_BITS) & WHEEL_MASK)].append(timer);
+        }
+    }
+
+    private long deadlineFor(long delayTicks) {
+        // Outside of a run the current tick has not been processed yet, inside a run it already has
+        long earliest = ticking ? currentTick + 1 : currentTick;
+
+        return Math.max(earliest, currentTick + delayTicks - (ticking ? 0 : 1));
+    }
+
+    private void playSoundToViewers(List<HumanEntity> viewers, Sound sound) {
+        for(HumanEntity humanEntity: viewers) {
+            if(humanEntity instanceof Player) {
+                Player player = (Player) humanEntity;
+                player.playSound(player.getLocation(), sound, 1.0F, 1.0F);
+            }
+        }
+    }
+
+    private static Timer[] newWheel() {
+        Timer[] wheel = new Timer[WHEEL_SIZE];
+
+        for(int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new Timer();
+        }
+
+        return wheel;
+    }
+
+    /**
+     * A scheduled timer, timers are nodes of circular doubly linked bucket lists headed by an empty sentinel timer
+     */
+    private static class Timer {
+        private TradeMenu tradeMenu = null;
+        private TradeRequest tradeRequest = null;
+        private long deadline = 0;
+
+        private Timer prev = null;
+        private Timer next = null;
+
+        private Timer() {
+            prev = this;
+            next = this;
+        }
+
+        private Timer(TradeMenu tradeMenu, long deadline) {
+            this.tradeMenu = tradeMenu;
+            this.deadline = deadline;
+        }
+
+        private Timer(TradeRequest tradeRequest, long deadline) {
+            this.tradeRequest = tradeRequest;
+            this.deadline = deadline;
+        }
+
+        private void append(Timer timer) {
+            timer.prev = prev;
+            timer.next = this;
+            prev.next = timer;
+            prev = timer;
+        }
+
+        private void unlink() {
+            if(prev == null) {return;}
+
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+
+        private void spliceInto(Timer sentinel) {
+            if(next == this) {return;}
+
+            sentinel.next = next;
+            sentinel.prev = prev;
+            next.prev = sentinel;
+            prev.next = sentinel;
+            next = this;
+            prev = this;
+        }
+    }
+}
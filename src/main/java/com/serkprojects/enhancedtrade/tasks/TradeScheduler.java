@@ -0,0 +1,78 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.tasks;
+
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.trade.TradeRequest;
+
+public interface TradeScheduler {
+    /**
+     * Starts the scheduler
+     */
+    void start();
+
+    /**
+     * Stops the scheduler, dropping every scheduled timer
+     */
+    void stop();
+
+    /**
+     * Schedules a trade request to expire if it has not been answered after a delay, replacing any existing expiry
+     * @param tradeRequest the trade request to expire
+     * @param delayTicks the number of ticks before the request expires
+     */
+    void scheduleRequestExpiry(TradeRequest tradeRequest, long delayTicks);
+
+    /**
+     * Removes the expiry for a trade request
+     * @param tradeRequest the trade request to stop expiring
+     */
+    void cancelRequestExpiry(TradeRequest tradeRequest);
+
+    /**
+     * Starts counting a trade down to completion one second at a time, replacing any existing countdown
+     * @param tradeMenu the trade menu to count down
+     * @param counter the number to count down from
+     */
+    void startCountdown(TradeMenu tradeMenu, int counter);
+
+    /**
+     * Stops counting a trade down
+     * @param tradeMenu the trade menu to stop counting down
+     */
+    void stopCountdown(TradeMenu tradeMenu);
+
+    /**
+     * Returns if a trade is counting down
+     * @param tradeMenu the trade menu to check
+     * @return if the trade is counting down
+     */
+    boolean isCountingDown(TradeMenu tradeMenu);
+
+    /**
+     * Removes every timer for a trade
+     * @param tradeMenu the trade menu to remove timers for
+     */
+    void cancelAll(TradeMenu tradeMenu);
+}
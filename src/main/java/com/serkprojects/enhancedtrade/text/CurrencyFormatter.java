@@ -0,0 +1,68 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.text;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import net.milkbowl.vault.economy.Economy;
+
+public class CurrencyFormatter {
+    // Amounts seen in trades are mostly small, the cache is dropped once it grows past this
+    private static final int MAX_CACHED_AMOUNTS = 4096;
+
+    private Economy economy = null;
+    private TIntObjectHashMap<String> formattedAmounts = null;
+
+    /**
+     * Creates an instance of the currency formatter, a new formatter should be made whenever the economy changes
+     * @param economy the economy to format with or null to format plain numbers
+     */
+    public CurrencyFormatter(Economy economy) {
+        this.economy = economy;
+        formattedAmounts = new TIntObjectHashMap<String>();
+    }
+
+    /**
+     * Formats an amount using the economy's currency format
+     * @param amount the amount to format
+     * @return the formatted amount
+     */
+    public String format(int amount) {
+        String formatted = formattedAmounts.get(amount);
+
+        if(formatted != null) {return formatted;}
+
+        if(economy == null) {
+            formatted = String.valueOf(amount);
+        } else {
+            formatted = economy.format(amount);
+        }
+
+        if(formattedAmounts.size() >= MAX_CACHED_AMOUNTS) {
+            formattedAmounts.clear();
+        }
+
+        formattedAmounts.put(amount, formatted);
+        return formatted;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.text;
+
+/**
+ * Every language file message the plugin sends
+ */
+public enum Message {
+    USAGE_TRADE("usageTrade"),
+    NO_PERMISSION("noPermission"),
+    COMMAND_PLAYER_REQUIRED("commandPlayerRequired"),
+    PLAYER_NOT_FOUND("playerNotFound"),
+    TRADE_PLAYER("tradePlayer"),
+    TRADE_SENT("tradeSent"),
+    TRADE_ACCEPT("tradeAccept"),
+    TRADE_ACCEPTED("tradeAccepted"),
+    TRADE_DENIED("tradeDenied"),
+    TRADE_HAS_BEEN_DENIED("tradeHasBeenDenied"),
+    TRADE_SELF_NOT_ALLOWED("tradeSelfNotAllowed"),
+    TRADE_CANCELLED("tradeCancelled"),
+    TRADE_WAITING("tradeWaiting"),
+    TRADE_CREATIVE_NOT_ALLOWED("tradeCreativeNotAllowed"),
+    TRADE_STILL_GOING("tradeStillGoing"),
+    TRADE_NOT_WAITING("tradeNotWaiting"),
+    TRADE_STILL_WAITING("tradeStillWaiting"),
+    TRADE_REQUEST_EXPIRED("tradeRequestExpired"),
+    TRADE_REQUEST_RATE_LIMITED("tradeRequestRateLimited"),
+    TRADE_REQUEST_INBOX_FULL("tradeRequestInboxFull"),
+    TRADE_REQUEST_WITHDRAWN("tradeRequestWithdrawn"),
+    TRADE_REQUEST_NOT_FOUND("tradeRequestNotFound"),
+    TRADE_OFFER_CHANGED("tradeOfferChanged"),
+    TRADE_COMPLETE("tradeComplete"),
+    TRADE_RECEIVED_MONEY("tradeReceivedMoney"),
+    TRADE_ITEMS_DROPPED("tradeItemsDropped"),
+    TRADE_ITEMS_RECOVERED("tradeItemsRecovered"),
+    TRADE_PAYOUT_FAILED("tradePayoutFailed"),
+    STATS_HEADER("statsHeader"),
+    STATS_HANDLER("statsHandler", false),
+    STATS_COUNTER("statsCounter", false),
+    HISTORY_HEADER("historyHeader"),
+    HISTORY_ENTRY_COMPLETED("historyEntryCompleted", false),
+    HISTORY_ENTRY_CANCELLED("historyEntryCancelled", false),
+    HISTORY_EMPTY("historyEmpty"),
+    HISTORY_UNAVAILABLE("historyUnavailable"),
+    CAN_NOT_AFFORD("canNotAfford");
+
+    private String key = null;
+    private boolean prefixed = true;
+
+    Message(String key) {
+        this(key, true);
+    }
+
+    Message(String key, boolean prefixed) {
+        this.key = key;
+        this.prefixed = prefixed;
+    }
+
+    /**
+     * Returns the key of the message in the language file
+     * @return the key of the message in the language file
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns if the message starts with the plugin prefix, lines of a list sent after a prefixed header do not
+     * @return if the message starts with the plugin prefix
+     */
+    public boolean isPrefixed() {
+        return prefixed;
+    }
+}
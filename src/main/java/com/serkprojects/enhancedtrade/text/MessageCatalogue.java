@@ -0,0 +1,122 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.text;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Every message from the language file compiled once with its color codes and the plugin prefix already applied.
+ * A new catalogue is built on reload, so sending a message is an array lookup and at most one template render.
+ */
+public class MessageCatalogue {
+    private CurrencyFormatter currencyFormatter = null;
+    private Template[] templates = null;
+
+    /**
+     * Creates an instance of the message catalogue, compiling every message from the current language
+     * @param plugin the plugin to pull the language, prefix and currency formatter from
+     */
+    public MessageCatalogue(EnhancedTrade plugin) {
+        currencyFormatter = plugin.getCurrencyFormatter();
+
+        // The prefix only has the plugin name to fill in, so it is rendered once up front
+        String prefix = Template.compile(plugin.getTradeSettings().getMessagePrefix()).render(currencyFormatter, plugin.getDescription().getName(), 0);
+
+        Message[] messages = Message.values();
+        templates = new Template[messages.length];
+
+        for(Message message: messages) {
+            String source = plugin.getLanguage().getMessage(message.getKey());
+
+            if(source == null) {
+                plugin.getLogger().warning("The language file is missing the message " + message.getKey());
+                source = message.getKey();
+            }
+
+            String text = ChatColor.translateAlternateColorCodes('&', source);
+            templates[message.ordinal()] = Template.compile(message.isPrefixed() ? prefix + " " + text : text);
+        }
+    }
+
+    /**
+     * Renders a message
+     * @param message the message to render
+     * @param name the value for {name}
+     * @param amount the value for {amount}, or for {count} as a plain number
+     * @return the rendered message
+     */
+    public String render(Message message, String name, int amount) {
+        return templates[message.ordinal()].render(currencyFormatter, name, amount);
+    }
+
+    /**
+     * Renders a message with extra values
+     * @param message the message to render
+     * @param name the value for {name}
+     * @param amount the value for {amount}, or for {count} as a plain number
+     * @param values the values for {value-#} from {value-1} on
+     * @return the rendered message
+     */
+    public String render(Message message, String name, int amount, String... values) {
+        return templates[message.ordinal()].render(currencyFormatter, name, amount, values);
+    }
+
+    /**
+     * Sends a message without a name or amount
+     * @param sender the sender to send to, ignored if null
+     * @param message the message to send
+     */
+    public void send(CommandSender sender, Message message) {
+        send(sender, message, null, 0);
+    }
+
+    /**
+     * Sends a message
+     * @param sender the sender to send to, ignored if null
+     * @param message the message to send
+     * @param name the value for {name}
+     * @param amount the value for {amount}, or for {count} as a plain number
+     */
+    public void send(CommandSender sender, Message message, String name, int amount) {
+        if(sender == null) {return;}
+
+        sender.sendMessage(render(message, name, amount));
+    }
+
+    /**
+     * Sends a message with extra values
+     * @param sender the sender to send to, ignored if null
+     * @param message the message to send
+     * @param name the value for {name}
+     * @param amount the value for {amount}, or for {count} as a plain number
+     * @param values the values for {value-#} from {value-1} on
+     */
+    public void send(CommandSender sender, Message message, String name, int amount, String... values) {
+        if(sender == null) {return;}
+
+        sender.sendMessage(render(message, name, amount, values));
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Template {
+    private static final byte LITERAL = 0;
+    private static final byte NAME = 1;
+    private static final byte AMOUNT = 2;
+    private static final byte CURRENCY = 3;
+    private static final byte COUNT = 4;
+    private static final byte VALUE = 5;
+
+    private String source = null;
+
+    // Parallel token arrays, literals only hold a value for literal tokens and amounts only for currency and value tokens
+    private byte[] kinds = null;
+    private String[] literals = null;
+    private int[] amounts = null;
+
+    // Templates are only rendered on the main thread so the builder can be shared between renders
+    private StringBuilder builder = null;
+
+    private Template(String source, byte[] kinds, String[] literals, int[] amounts) {
+        this.source = source;
+        this.kinds = kinds;
+        this.literals = literals;
+        this.amounts = amounts;
+        builder = new StringBuilder(source.length() + 16);
+    }
+
+    /**
+     * Parses a string into a template, supported placeholders are {name}, {amount}, {count}, {currency-#} and {value-#}
+     * @param source the string to parse
+     * @return the parsed template
+     */
+    public static Template compile(String source) {
+        if(source == null) {source = "";}
+
+        List<Byte> kindList = new ArrayList<Byte>();
+        List<String> literalList = new ArrayList<String>();
+        List<Integer> amountList = new ArrayList<Integer>();
+
+        StringBuilder literal = new StringBuilder();
+        int index = 0;
+
+        while(index < source.length()) {
+            char character = source.charAt(index);
+            int end = character == '{' ? source.indexOf('}', index) : -1;
+
+            if(end == -1) {
+                literal.append(character);
+                index++;
+                continue;
+            }
+
+            String key = source.substring(index + 1, end);
+            byte kind = LITERAL;
+            int amount = 0;
+
+            if(key.equals("name")) {
+                kind = NAME;
+            } else if(key.equals("amount")) {
+                kind = AMOUNT;
+            } else if(key.equals("count")) {
+                kind = COUNT;
+            } else if(key.startsWith("currency-")) {
+                try {
+                    amount = Integer.parseInt(key.substring("currency-".length()));
+                    kind = CURRENCY;
+                } catch (NumberFormatException ex) {
+                    kind = LITERAL;
+                }
+            } else if(key.startsWith("value-")) {
+                try {
+                    // Values are numbered from 1 in the template and held by their index
+                    amount = Integer.parseInt(key.substring("value-".length())) - 1;
+                    kind = amount >= 0 ? VALUE : LITERAL;
+                } catch (NumberFormatException ex) {
+                    kind = LITERAL;
+                }
+            }
+
+            if(kind == LITERAL) {
+                literal.append(character);
+                index++;
+                continue;
+            }
+
+            if(literal.length() > 0) {
+                kindList.add(LITERAL);
+                literalList.add(literal.toString());
+                amountList.add(0);
+                literal.setLength(0);
+            }
+
+            kindList.add(kind);
+            literalList.add(null);
+            amountList.add(amount);
+            index = end + 1;
+        }
+
+        if(literal.length() > 0) {
+            kindList.add(LITERAL);
+            literalList.add(literal.toString());
+            amountList.add(0);
+        }
+
+        byte[] kinds = new byte[kindList.size()];
+        int[] amounts = new int[kindList.size()];
+
+        for(int i = 0; i < kinds.length; i++) {
+            kinds[i] = kindList.get(i);
+            amounts[i] = amountList.get(i);
+        }
+
+        return new Template(source, kinds, literalList.toArray(new String[literalList.size()]), amounts);
+    }
+
+    /**
+     * Returns the string the template was parsed from
+     * @return the string the template was parsed from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns if the template has no placeholders
+     * @return if the template has no placeholders
+     */
+    public boolean isConstant() {
+        return kinds.length == 0 || kinds.length == 1 && kinds[0] == LITERAL;
+    }
+
+    /**
+     * Returns if the template has a {name} placeholder
+     * @return if the template has a {name} placeholder
+     */
+    public boolean hasName() {
+        for(byte kind: kinds) {
+            if(kind == NAME) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Renders the template
+     * @param currencyFormatter the formatter used for {currency-#} and {amount}
+     * @param name the value for {name}
+     * @param amount the value for {amount}, or for {count} as a plain number
+     * @return the rendered string
+     */
+    public String render(CurrencyFormatter currencyFormatter, String name, int amount) {
+        return render(currencyFormatter, name, amount, null);
+    }
+
+    /**
+     * Renders the template with extra values
+     * @param currencyFormatter the formatter used for {currency-#} and {amount}
+     * @param name the value for {name}
+     * @param amount the value for {amount}, or for {count} as a plain number
+     * @param values the values for {value-#} from {value-1} on, placeholders without a value render empty
+     * @return the rendered string
+     */
+    public String render(CurrencyFormatter currencyFormatter, String name, int amount, String[] values) {
+        if(kinds.length == 0) {return "";}
+        if(isConstant()) {return literals[0];}
+
+        builder.setLength(0);
+
+        for(int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case LITERAL:
+                    builder.append(literals[i]);
+                    break;
+                case NAME:
+                    builder.append(name);
+                    break;
+                case AMOUNT:
+                    builder.append(currencyFormatter.format(amount));
+                    break;
+                case CURRENCY:
+                    builder.append(currencyFormatter.format(amounts[i]));
+                    break;
+                case COUNT:
+                    builder.append(amount);
+                    break;
+                case VALUE:
+                    if(values != null && amounts[i] < values.length) {
+                        builder.append(values[amounts[i]]);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Renders the template without a name or amount
+     * @param currencyFormatter the formatter used for {currency-#}
+     * @return the rendered string
+     */
+    public String render(CurrencyFormatter currencyFormatter) {
+        return render(currencyFormatter, "", 0);
+    }
+}
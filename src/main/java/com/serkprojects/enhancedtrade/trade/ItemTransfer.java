@@ -0,0 +1,158 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import org.bukkit.Material;
+import org.bukkit.entity.Item;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves traded items into a player's inventory.
+ * The fit is worked out against a copy of the inventory contents, which are written back with a single setContents,
+ * and whatever does not fit is merged into as few stacks as possible before being dropped.
+ */
+public class ItemTransfer {
+    private EnhancedTrade plugin = null;
+
+    /**
+     * Creates an instance of the item transfer
+     * @param plugin the plugin to protect dropped items through
+     */
+    public ItemTransfer(EnhancedTrade plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Gives items to a player, dropping what does not fit at their feet
+     * @param player the player to give the items to
+     * @param itemStacks the items to give
+     * @return if any items had to be dropped
+     */
+    public boolean give(Player player, List<ItemStack> itemStacks) {
+        if(itemStacks.isEmpty()) {return false;}
+
+        Inventory inventory = player.getInventory();
+        ItemStack[] contents = inventory.getContents();
+        List<ItemStack> overflow = fit(contents, itemStacks);
+        inventory.setContents(contents);
+
+        for(ItemStack itemStack: overflow) {
+            Item item = player.getWorld().dropItem(player.getLocation(), itemStack);
+            plugin.getProtectedDrops().protect(item, player.getUniqueId(), plugin.getTradeSettings().getDropProtectionMillis());
+            plugin.getTradeMetrics().increment(TradeMetrics.Counter.ITEMS_DROPPED, itemStack.getAmount());
+        }
+
+        return !overflow.isEmpty();
+    }
+
+    /**
+     * Fits items into inventory contents, topping up similar stacks before filling empty slots
+     * @param contents the contents to fit the items into, changed slots are replaced rather than modified
+     * @param itemStacks the items to fit
+     * @return the items that did not fit, merged into full stacks where possible
+     */
+    public static List<ItemStack> fit(ItemStack[] contents, List<ItemStack> itemStacks) {
+        List<ItemStack> overflow = new ArrayList<ItemStack>();
+
+        // Empty slots only ever fill up, so the search for the next one never has to go back
+        int nextEmpty = 0;
+
+        for(ItemStack itemStack: itemStacks) {
+            if(isEmpty(itemStack)) {continue;}
+
+            int maxStackSize = getMaxStackSize(itemStack);
+            int amount = itemStack.getAmount();
+
+            for(int i = 0; i < contents.length && amount > 0; i++) {
+                ItemStack slotStack = contents[i];
+
+                if(isEmpty(slotStack) || slotStack.getAmount() >= maxStackSize || !slotStack.isSimilar(itemStack)) {continue;}
+
+                int moved = Math.min(amount, maxStackSize - slotStack.getAmount());
+                contents[i] = withAmount(slotStack, slotStack.getAmount() + moved);
+                amount -= moved;
+            }
+
+            while(amount > 0) {
+                while(nextEmpty < contents.length && !isEmpty(contents[nextEmpty])) {
+                    nextEmpty++;
+                }
+
+                if(nextEmpty == contents.length) {break;}
+
+                int moved = Math.min(amount, maxStackSize);
+                contents[nextEmpty] = withAmount(itemStack, moved);
+                amount -= moved;
+            }
+
+            if(amount > 0) {
+                addOverflow(overflow, itemStack, amount, maxStackSize);
+            }
+        }
+
+        return overflow;
+    }
+
+    private static void addOverflow(List<ItemStack> overflow, ItemStack itemStack, int amount, int maxStackSize) {
+        for(int i = 0; i < overflow.size() && amount > 0; i++) {
+            ItemStack overflowStack = overflow.get(i);
+
+            if(overflowStack.getAmount() >= maxStackSize || !overflowStack.isSimilar(itemStack)) {continue;}
+
+            int moved = Math.min(amount, maxStackSize - overflowStack.getAmount());
+            overflowStack.setAmount(overflowStack.getAmount() + moved);
+            amount -= moved;
+        }
+
+        while(amount > 0) {
+            int moved = Math.min(amount, maxStackSize);
+            overflow.add(withAmount(itemStack, moved));
+            amount -= moved;
+        }
+    }
+
+    private static int getMaxStackSize(ItemStack itemStack) {
+        int maxStackSize = itemStack.getMaxStackSize();
+
+        return maxStackSize > 0 ? maxStackSize : itemStack.getType().getMaxStackSize();
+    }
+
+    private static ItemStack withAmount(ItemStack itemStack, int amount) {
+        ItemStack copy = itemStack.clone();
+        copy.setAmount(amount);
+
+        return copy;
+    }
+
+    private static boolean isEmpty(ItemStack itemStack) {
+        return itemStack == null || itemStack.getType() == Material.AIR || itemStack.getAmount() <= 0;
+    }
+}
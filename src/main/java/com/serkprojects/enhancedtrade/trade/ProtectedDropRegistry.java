@@ -0,0 +1,126 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.bukkit.entity.Item;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Tracks dropped trade items that only their owner may pick up, keyed by entity id.
+ * Protection runs out after a set time, expired entries are swept out once a second.
+ */
+public class ProtectedDropRegistry extends BukkitRunnable {
+    private TIntObjectHashMap<ProtectedDrop> drops = null;
+
+    // Drops in the order they were protected, which is also expiry order while the protection time is unchanged
+    private ArrayDeque<ProtectedDrop> expiryQueue = null;
+
+    /**
+     * Creates an instance of the protected drop registry
+     */
+    public ProtectedDropRegistry() {
+        drops = new TIntObjectHashMap<ProtectedDrop>();
+        expiryQueue = new ArrayDeque<ProtectedDrop>();
+    }
+
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+
+        ProtectedDrop protectedDrop;
+        while((protectedDrop = expiryQueue.peek()) != null && protectedDrop.expiresAt <= now) {
+            expiryQueue.poll();
+
+            // The entry may already have been replaced or removed
+            if(drops.get(protectedDrop.entityId) == protectedDrop) {
+                drops.remove(protectedDrop.entityId);
+            }
+        }
+    }
+
+    /**
+     * Protects a dropped item so only its owner can pick it up
+     * @param item the dropped item
+     * @param owner the UUID of the owner
+     * @param protectionMillis how long the item is protected for, nothing is protected if it is 0 or less
+     */
+    public void protect(Item item, UUID owner, long protectionMillis) {
+        if(protectionMillis <= 0) {return;}
+
+        ProtectedDrop protectedDrop = new ProtectedDrop(item.getEntityId(), owner, System.currentTimeMillis() + protectionMillis);
+        drops.put(protectedDrop.entityId, protectedDrop);
+        expiryQueue.add(protectedDrop);
+    }
+
+    /**
+     * Returns the owner of a protected item
+     * @param entityId the entity id of the item
+     * @return the UUID of the owner or null if the item is not protected
+     */
+    public UUID getOwner(int entityId) {
+        ProtectedDrop protectedDrop = drops.get(entityId);
+
+        if(protectedDrop == null) {return null;}
+
+        // Expired entries linger until the next sweep
+        if(protectedDrop.expiresAt <= System.currentTimeMillis()) {
+            drops.remove(entityId);
+            return null;
+        }
+
+        return protectedDrop.owner;
+    }
+
+    /**
+     * Removes the protection from an item
+     * @param entityId the entity id of the item
+     */
+    public void remove(int entityId) {
+        drops.remove(entityId);
+    }
+
+    /**
+     * Returns the number of protected items
+     * @return the number of protected items
+     */
+    public int size() {
+        return drops.size();
+    }
+
+    private static class ProtectedDrop {
+        private int entityId = 0;
+        private UUID owner = null;
+        private long expiresAt = 0;
+
+        private ProtectedDrop(int entityId, UUID owner, long expiresAt) {
+            this.entityId = entityId;
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import com.serkprojects.enhancedtrade.EnhancedTrade;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.text.Message;
+import gnu.trove.map.hash.THashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Trade requests waiting to be accepted, kept in a per-player inbox of requests made to them.
+ * Each player can only have one request out at a time.
+ */
+public class RequestInbox {
+    private EnhancedTrade plugin = null;
+
+    // Tradee UUID to the requests made to them, oldest first
+    private THashMap<UUID, List<TradeRequest>> inboxes = null;
+
+    // Trader UUID to the request they have made
+    private THashMap<UUID, TradeRequest> outgoing = null;
+
+    /**
+     * Creates an instance of the request inbox
+     * @param plugin the plugin to send messages and record metrics through
+     */
+    public RequestInbox(EnhancedTrade plugin) {
+        this.plugin = plugin;
+        inboxes = new THashMap<UUID, List<TradeRequest>>();
+        outgoing = new THashMap<UUID, TradeRequest>();
+    }
+
+    /**
+     * Adds a request to the tradee's inbox
+     * @param tradeRequest the request to add
+     * @param maxPending how many requests the tradee's inbox can hold
+     * @return if the request was added, false if the trader already has a request out or the tradee's inbox is full
+     */
+    public boolean add(TradeRequest tradeRequest, int maxPending) {
+        if(outgoing.containsKey(tradeRequest.getTraderUUID())) {return false;}
+
+        List<TradeRequest> inbox = inboxes.get(tradeRequest.getTradeeUUID());
+
+        if(inbox == null) {
+            inbox = new ArrayList<TradeRequest>(2);
+            inboxes.put(tradeRequest.getTradeeUUID(), inbox);
+        } else if(inbox.size() >= maxPending) {
+            return false;
+        }
+
+        inbox.add(tradeRequest);
+        outgoing.put(tradeRequest.getTraderUUID(), tradeRequest);
+        return true;
+    }
+
+    /**
+     * Removes a request along with its expiry
+     * @param tradeRequest the request to remove
+     * @return if the request was removed, false if it was not waiting
+     */
+    public boolean remove(TradeRequest tradeRequest) {
+        if(outgoing.get(tradeRequest.getTraderUUID()) != tradeRequest) {return false;}
+
+        outgoing.remove(tradeRequest.getTraderUUID());
+
+        List<TradeRequest> inbox = inboxes.get(tradeRequest.getTradeeUUID());
+
+        if(inbox != null) {
+            inbox.remove(tradeRequest);
+
+            if(inbox.isEmpty()) {
+                inboxes.remove(tradeRequest.getTradeeUUID());
+            }
+        }
+
+        plugin.getTradeScheduler().cancelRequestExpiry(tradeRequest);
+        return true;
+    }
+
+    /**
+     * Denies a request, letting both players know
+     * @param tradeRequest the request to deny
+     */
+    public void deny(TradeRequest tradeRequest) {
+        if(!remove(tradeRequest)) {return;}
+
+        plugin.getMessageCatalogue().send(plugin.getServer().getPlayer(tradeRequest.getTradeeUUID()), Message.TRADE_DENIED);
+        plugin.getMessageCatalogue().send(plugin.getServer().getPlayer(tradeRequest.getTraderUUID()), Message.TRADE_HAS_BEEN_DENIED);
+        plugin.getTradeMetrics().increment(TradeMetrics.Counter.DENIED);
+    }
+
+    /**
+     * Expires a request that was not answered in time, letting the trader know
+     * @param tradeRequest the request to expire
+     */
+    public void expire(TradeRequest tradeRequest) {
+        if(!remove(tradeRequest)) {return;}
+
+        plugin.getMessageCatalogue().send(plugin.getServer().getPlayer(tradeRequest.getTraderUUID()), Message.TRADE_REQUEST_EXPIRED, tradeRequest.getTradeeName(), 0);
+        plugin.getTradeMetrics().increment(TradeMetrics.Counter.TIMED_OUT);
+    }
+
+    /**
+     * Withdraws every request a player made or was made to them when they leave, letting the other players know.
+     * Withdrawn requests are not counted as denied
+     * @param UUID the UUID of the player
+     */
+    public void withdrawAll(UUID UUID) {
+        TradeRequest tradeRequest = outgoing.get(UUID);
+
+        if(tradeRequest != null && remove(tradeRequest)) {
+            plugin.getMessageCatalogue().send(plugin.getServer().getPlayer(tradeRequest.getTradeeUUID()), Message.TRADE_REQUEST_WITHDRAWN, tradeRequest.getTraderName(), 0);
+            plugin.getTradeMetrics().increment(TradeMetrics.Counter.WITHDRAWN);
+        }
+
+        List<TradeRequest> inbox = inboxes.get(UUID);
+
+        if(inbox == null) {return;}
+
+        // Removing requests removes them from the inbox, so iterate over a copy
+        for(TradeRequest request: new ArrayList<TradeRequest>(inbox)) {
+            if(!remove(request)) {continue;}
+
+            plugin.getMessageCatalogue().send(plugin.getServer().getPlayer(request.getTraderUUID()), Message.TRADE_REQUEST_WITHDRAWN, request.getTradeeName(), 0);
+            plugin.getTradeMetrics().increment(TradeMetrics.Counter.WITHDRAWN);
+        }
+    }
+
+    /**
+     * Returns if a player's inbox cannot take any more requests
+     * @param UUID the UUID of the tradee
+     * @param maxPending how many requests the tradee's inbox can hold
+     * @return if the player's inbox cannot take any more requests
+     */
+    public boolean isFull(UUID UUID, int maxPending) {
+        List<TradeRequest> inbox = inboxes.get(UUID);
+
+        return inbox != null && inbox.size() >= maxPending;
+    }
+
+    /**
+     * Returns the oldest request made to a player
+     * @param UUID the UUID of the tradee
+     * @return the oldest request made to the player or null if there is none
+     */
+    public TradeRequest getOldest(UUID UUID) {
+        List<TradeRequest> inbox = inboxes.get(UUID);
+
+        if(inbox == null || inbox.isEmpty()) {return null;}
+
+        return inbox.get(0);
+    }
+
+    /**
+     * Returns the request a player was made by a certain trader
+     * @param UUID the UUID of the tradee
+     * @param traderName the name of the trader, ignoring case
+     * @return the request the player was made by the trader or null if there is none
+     */
+    public TradeRequest getRequest(UUID UUID, String traderName) {
+        List<TradeRequest> inbox = inboxes.get(UUID);
+
+        if(inbox == null) {return null;}
+
+        for(TradeRequest tradeRequest: inbox) {
+            if(tradeRequest.getTraderName().equalsIgnoreCase(traderName)) {
+                return tradeRequest;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the read-only list of requests made to a player, oldest first
+     * @param UUID the UUID of the tradee
+     * @return the read-only list of requests made to the player
+     */
+    public List<TradeRequest> getRequests(UUID UUID) {
+        List<TradeRequest> inbox = inboxes.get(UUID);
+
+        if(inbox == null) {return Collections.emptyList();}
+
+        return Collections.unmodifiableList(inbox);
+    }
+
+    /**
+     * Returns the request a player has made
+     * @param UUID the UUID of the trader
+     * @return the request the player has made or null if there is none
+     */
+    public TradeRequest getOutgoing(UUID UUID) {
+        return outgoing.get(UUID);
+    }
+
+    /**
+     * Returns if a player has made a request or has requests made to them
+     * @param UUID the UUID of the player
+     * @return if the player has made a request or has requests made to them
+     */
+    public boolean hasRequests(UUID UUID) {
+        return outgoing.containsKey(UUID) || inboxes.containsKey(UUID);
+    }
+
+    /**
+     * Returns the number of waiting requests
+     * @return the number of waiting requests
+     */
+    public int size() {
+        return outgoing.size();
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.util.UUID;
+
+/**
+ * Per-player token bucket limiting how often trade requests can be made.
+ * Each bucket is kept as the single time it will be full again, a request takes one token and is allowed while
+ * the bucket would not need to hold more than its burst size, so nothing has to be refilled on a timer.
+ */
+public class RequestRateLimiter {
+    // Player UUID to the time in milliseconds their bucket is full again, full buckets may be missing
+    private TObjectLongHashMap<UUID> fullAt = null;
+
+    /**
+     * Creates an instance of the request rate limiter
+     */
+    public RequestRateLimiter() {
+        fullAt = new TObjectLongHashMap<UUID>();
+    }
+
+    /**
+     * Takes a token from a player's bucket if one is available
+     * @param UUID the UUID of the player
+     * @param now the current time in milliseconds
+     * @param burst how many tokens a full bucket holds
+     * @param refillMillis how many milliseconds it takes to refill one token
+     * @return 0 if a token was taken, otherwise the milliseconds until one is available
+     */
+    public long tryAcquire(UUID UUID, long now, int burst, long refillMillis) {
+        long full = Math.max(fullAt.get(UUID), now);
+        long next = full + refillMillis;
+        long wait = next - now - burst * refillMillis;
+
+        if(wait > 0) {return wait;}
+
+        fullAt.put(UUID, next);
+        return 0;
+    }
+
+    /**
+     * Forgets a player's bucket once it is full again, buckets that are still refilling are kept
+     * @param UUID the UUID of the player
+     * @param now the current time in milliseconds
+     */
+    public void forgetIfFull(UUID UUID, long now) {
+        if(fullAt.containsKey(UUID) && fullAt.get(UUID) <= now) {
+            fullAt.remove(UUID);
+        }
+    }
+
+    /**
+     * Returns the number of players with a bucket that is still refilling or has not been forgotten
+     * @return the number of players with a bucket
+     */
+    public int size() {
+        return fullAt.size();
+    }
+}
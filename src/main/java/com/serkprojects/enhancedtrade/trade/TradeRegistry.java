@@ -0,0 +1,125 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+
+public class TradeRegistry {
+    // Every accepted trade
+    private THashSet<TradeMenu> trades = null;
+    private Collection<TradeMenu> tradesView = null;
+
+    // Participant UUID to the trade they are part of
+    private THashMap<UUID, TradeMenu> participantIndex = null;
+
+    /**
+     * Creates an instance of the trade registry
+     */
+    public TradeRegistry() {
+        trades = new THashSet<TradeMenu>();
+        tradesView = Collections.unmodifiableCollection(trades);
+        participantIndex = new THashMap<UUID, TradeMenu>();
+    }
+
+    /**
+     * Registers an accepted trade, indexing both participants
+     * @param tradeMenu the trade menu to register
+     * @return if the trade was registered, false if either participant is missing or already trading
+     */
+    public boolean register(TradeMenu tradeMenu) {
+        UUID traderUUID = tradeMenu.getTraderUUID();
+        UUID tradeeUUID = tradeMenu.getTradeeUUID();
+
+        if(traderUUID == null || tradeeUUID == null) {return false;}
+        if(participantIndex.containsKey(traderUUID) || participantIndex.containsKey(tradeeUUID)) {return false;}
+
+        participantIndex.put(traderUUID, tradeMenu);
+        participantIndex.put(tradeeUUID, tradeMenu);
+        trades.add(tradeMenu);
+        return true;
+    }
+
+    /**
+     * Removes a trade along with both of its participants
+     * @param tradeMenu the trade menu to remove
+     */
+    public void unregister(TradeMenu tradeMenu) {
+        if(!trades.remove(tradeMenu)) {return;}
+
+        removeParticipant(tradeMenu.getTraderUUID(), tradeMenu);
+        removeParticipant(tradeMenu.getTradeeUUID(), tradeMenu);
+    }
+
+    /**
+     * Returns the trade a player is participating in
+     * @param UUID the UUID of the player
+     * @return the trade the player is participating in or null if there is none
+     */
+    public TradeMenu getTrade(UUID UUID) {
+        if(UUID == null) {return null;}
+
+        return participantIndex.get(UUID);
+    }
+
+    /**
+     * Returns if a UUID is involved in a trade
+     * @param UUID the UUID to check
+     * @return if a UUID is involved in a trade
+     */
+    public boolean isTrading(UUID UUID) {
+        if(UUID == null) {return false;}
+
+        return participantIndex.containsKey(UUID);
+    }
+
+    /**
+     * Returns the read-only view of every registered trade, the view is live and must be copied before trades are removed while iterating
+     * @return the read-only view of every registered trade
+     */
+    public Collection<TradeMenu> getTrades() {
+        return tradesView;
+    }
+
+    /**
+     * Returns the number of registered trades
+     * @return the number of registered trades
+     */
+    public int size() {
+        return trades.size();
+    }
+
+    private void removeParticipant(UUID UUID, TradeMenu tradeMenu) {
+        if(UUID == null) {return;}
+
+        if(participantIndex.get(UUID) == tradeMenu) {
+            participantIndex.remove(UUID);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import java.util.UUID;
+
+/**
+ * A trade request waiting to be accepted, nothing is allocated for the trade itself until it is
+ */
+public class TradeRequest {
+    private final UUID traderUUID;
+    private final UUID tradeeUUID;
+    private final String traderName;
+    private final String tradeeName;
+
+    /**
+     * Creates an instance of a trade request
+     * @param traderUUID the UUID of the player making the request
+     * @param traderName the name of the player making the request
+     * @param tradeeUUID the UUID of the player being requested
+     * @param tradeeName the name of the player being requested
+     */
+    public TradeRequest(UUID traderUUID, String traderName, UUID tradeeUUID, String tradeeName) {
+        this.traderUUID = traderUUID;
+        this.traderName = traderName;
+        this.tradeeUUID = tradeeUUID;
+        this.tradeeName = tradeeName;
+    }
+
+    /**
+     * Returns the UUID of the player who made the request
+     * @return the UUID of the player who made the request
+     */
+    public UUID getTraderUUID() {
+        return traderUUID;
+    }
+
+    /**
+     * Returns the UUID of the player the request was made to
+     * @return the UUID of the player the request was made to
+     */
+    public UUID getTradeeUUID() {
+        return tradeeUUID;
+    }
+
+    /**
+     * Returns the name of the player who made the request
+     * @return the name of the player who made the request
+     */
+    public String getTraderName() {
+        return traderName;
+    }
+
+    /**
+     * Returns the name of the player the request was made to
+     * @return the name of the player the request was made to
+     */
+    public String getTradeeName() {
+        return tradeeName;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+public class ViewerRegistry {
+    // Viewer UUID to the trade menu they have open
+    private THashMap<UUID, TradeMenu> viewing = null;
+
+    // Trade menu to the UUIDs of everyone who has it open
+    private THashMap<TradeMenu, THashSet<UUID>> viewers = null;
+
+    /**
+     * Creates an instance of the viewer registry
+     */
+    public ViewerRegistry() {
+        viewing = new THashMap<UUID, TradeMenu>();
+        viewers = new THashMap<TradeMenu, THashSet<UUID>>();
+    }
+
+    /**
+     * Records that a player has opened a trade menu, replacing any menu they were recorded as viewing
+     * @param UUID the UUID of the player
+     * @param tradeMenu the trade menu they opened
+     */
+    public void open(UUID UUID, TradeMenu tradeMenu) {
+        if(UUID == null || tradeMenu == null) {return;}
+
+        close(UUID);
+
+        viewing.put(UUID, tradeMenu);
+
+        THashSet<UUID> menuViewers = viewers.get(tradeMenu);
+
+        if(menuViewers == null) {
+            menuViewers = new THashSet<UUID>(4);
+            viewers.put(tradeMenu, menuViewers);
+        }
+
+        menuViewers.add(UUID);
+    }
+
+    /**
+     * Records that a player has closed the trade menu they were viewing
+     * @param UUID the UUID of the player
+     * @return the trade menu they were viewing or null if they were not viewing one
+     */
+    public TradeMenu close(UUID UUID) {
+        if(UUID == null) {return null;}
+
+        TradeMenu tradeMenu = viewing.remove(UUID);
+
+        if(tradeMenu == null) {return null;}
+
+        THashSet<UUID> menuViewers = viewers.get(tradeMenu);
+
+        if(menuViewers != null && menuViewers.remove(UUID) && menuViewers.isEmpty()) {
+            viewers.remove(tradeMenu);
+        }
+
+        return tradeMenu;
+    }
+
+    /**
+     * Returns the trade menu a player is viewing
+     * @param UUID the UUID of the player
+     * @return the trade menu the player is viewing or null if they are not viewing one
+     */
+    public TradeMenu getViewing(UUID UUID) {
+        if(UUID == null) {return null;}
+
+        return viewing.get(UUID);
+    }
+
+    /**
+     * Returns the UUIDs of everyone viewing a trade menu
+     * @param tradeMenu the trade menu to check
+     * @return the read-only UUIDs of everyone viewing the trade menu
+     */
+    public Set<UUID> getViewers(TradeMenu tradeMenu) {
+        THashSet<UUID> menuViewers = viewers.get(tradeMenu);
+
+        if(menuViewers == null) {return Collections.emptySet();}
+
+        return Collections.unmodifiableSet(menuViewers);
+    }
+
+    /**
+     * Returns the number of players viewing a trade menu
+     * @return the number of players viewing a trade menu
+     */
+    public int size() {
+        return viewing.size();
+    }
+}
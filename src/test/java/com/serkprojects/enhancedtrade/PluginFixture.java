@@ -0,0 +1,397 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade;
+
+import com.serkprojects.enhancedtrade.economy.EconomyPipeline;
+import com.serkprojects.enhancedtrade.economy.MemoryEconomy;
+import com.serkprojects.enhancedtrade.listeners.MenuListener;
+import com.serkprojects.enhancedtrade.menu.SlotRole;
+import com.serkprojects.enhancedtrade.menu.TradeLayout;
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.metrics.TradeMetrics;
+import com.serkprojects.enhancedtrade.settings.TradeSettings;
+import com.serkprojects.enhancedtrade.tasks.MenuUpdateBatcher;
+import com.serkprojects.enhancedtrade.tasks.TimingWheelTradeScheduler;
+import com.serkprojects.enhancedtrade.text.MessageCatalogue;
+import com.serkprojects.enhancedtrade.trade.TradeRegistry;
+import com.serkprojects.enhancedtrade.trade.ViewerRegistry;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginLogger;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A mocked plugin wired to the real trade registries, scheduler and economy pipeline so trades can be driven without a server.
+ * Every participant is offline, and tasks the plugin schedules are queued instead of run so a test decides when they run.
+ */
+public class PluginFixture {
+    private static final long TASK_TIMEOUT_SECONDS = 10;
+
+    // Bukkit only takes a server once, so every fixture shares it and swaps in its own scheduler
+    private static Server server = null;
+
+    private EnhancedTrade plugin = null;
+    private TradeLayout layout = null;
+    private MemoryEconomy memoryEconomy = null;
+    private EconomyPipeline economyPipeline = null;
+    private TradeRegistry tradeRegistry = null;
+    private ViewerRegistry viewerRegistry = null;
+    private TimingWheelTradeScheduler tradeScheduler = null;
+    private MenuUpdateBatcher menuUpdateBatcher = null;
+    private MenuListener menuListener = null;
+    private MessageCatalogue messageCatalogue = null;
+    private BlockingQueue<Runnable> tasks = null;
+
+    /**
+     * Creates an instance of the plugin fixture with its economy pipeline started
+     */
+    public PluginFixture() {
+        tasks = new LinkedBlockingQueue<Runnable>();
+        when(getServer().getScheduler()).thenReturn(newScheduler(tasks));
+
+        plugin = mock(EnhancedTrade.class);
+        setPluginState(plugin);
+
+        layout = new TradeLayout(TradeLayout.DEFAULT_ROWS);
+        TradeSettings tradeSettings = mock(TradeSettings.class);
+        when(tradeSettings.getLayout()).thenReturn(layout);
+        when(tradeSettings.getPages()).thenReturn(1);
+        when(tradeSettings.getTickDownCounter()).thenReturn(3);
+
+        TradeMetrics tradeMetrics = new TradeMetrics();
+        memoryEconomy = new MemoryEconomy();
+        economyPipeline = new EconomyPipeline(plugin, memoryEconomy.getEconomy());
+        tradeRegistry = new TradeRegistry();
+        viewerRegistry = new ViewerRegistry();
+        tradeScheduler = new TimingWheelTradeScheduler(plugin, tradeMetrics);
+        menuUpdateBatcher = new MenuUpdateBatcher(tradeMetrics);
+        menuListener = new MenuListener(plugin);
+
+        when(plugin.getTradeSettings()).thenReturn(tradeSettings);
+        when(plugin.getTradeMetrics()).thenReturn(tradeMetrics);
+        when(plugin.getEconomy()).thenReturn(memoryEconomy.getEconomy());
+        when(plugin.getEconomyPipeline()).thenReturn(economyPipeline);
+        when(plugin.getTradeRegistry()).thenReturn(tradeRegistry);
+        when(plugin.getViewerRegistry()).thenReturn(viewerRegistry);
+        when(plugin.getTradeScheduler()).thenReturn(tradeScheduler);
+        when(plugin.getMenuUpdateBatcher()).thenReturn(menuUpdateBatcher);
+        messageCatalogue = mock(MessageCatalogue.class);
+        when(plugin.getMessageCatalogue()).thenReturn(messageCatalogue);
+
+        economyPipeline.start();
+    }
+
+    /**
+     * Returns the mocked plugin
+     * @return the mocked plugin
+     */
+    public EnhancedTrade getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Returns the economy the pipeline settles against
+     * @return the economy the pipeline settles against
+     */
+    public MemoryEconomy getMemoryEconomy() {
+        return memoryEconomy;
+    }
+
+    /**
+     * Returns the mocked message catalogue every message is sent through
+     * @return the mocked message catalogue
+     */
+    public MessageCatalogue getMessageCatalogue() {
+        return messageCatalogue;
+    }
+
+    /**
+     * Returns the trade registry
+     * @return the trade registry
+     */
+    public TradeRegistry getTradeRegistry() {
+        return tradeRegistry;
+    }
+
+    /**
+     * Returns the viewer registry
+     * @return the viewer registry
+     */
+    public ViewerRegistry getViewerRegistry() {
+        return viewerRegistry;
+    }
+
+    /**
+     * Returns the trade scheduler
+     * @return the trade scheduler
+     */
+    public TimingWheelTradeScheduler getTradeScheduler() {
+        return tradeScheduler;
+    }
+
+    /**
+     * Returns the menu update batcher
+     * @return the menu update batcher
+     */
+    public MenuUpdateBatcher getMenuUpdateBatcher() {
+        return menuUpdateBatcher;
+    }
+
+    /**
+     * Creates, registers and accepts a trade between two players the way accepting a request does
+     * @param traderUUID the UUID of the trader
+     * @param tradeeUUID the UUID of the tradee
+     * @return the accepted trade
+     */
+    public TradeMenu newTrade(UUID traderUUID, UUID tradeeUUID) {
+        TradeMenu tradeMenu = new TradeMenu(plugin);
+        tradeMenu.setTraderUUID(traderUUID);
+        tradeMenu.setTradeeUUID(tradeeUUID);
+
+        if(!tradeRegistry.register(tradeMenu)) {
+            throw new IllegalStateException("Could not register the trade between " + traderUUID + " and " + tradeeUUID);
+        }
+
+        tradeMenu.acceptTrade();
+        return tradeMenu;
+    }
+
+    /**
+     * Clicks a menu button as a player
+     * @param tradeMenu the trade menu to click in
+     * @param UUID the UUID of the player clicking
+     * @param slotRole the button to click
+     */
+    public void click(TradeMenu tradeMenu, UUID UUID, SlotRole slotRole) {
+        int slot = layout.getButtonSlot(slotRole);
+        tradeMenu.handleClick(new InventoryClickEvent(newView(UUID, tradeMenu), InventoryType.SlotType.CONTAINER, slot, ClickType.LEFT, InventoryAction.PICKUP_ALL));
+    }
+
+    /**
+     * Opens a trade menu for a player through the menu listener
+     * @param tradeMenu the trade menu to open
+     * @param UUID the UUID of the player opening it
+     */
+    public void openMenu(TradeMenu tradeMenu, UUID UUID) {
+        menuListener.inventoryOpen(new InventoryOpenEvent(newView(UUID, tradeMenu)));
+    }
+
+    /**
+     * Closes a trade menu for a player through the menu listener
+     * @param tradeMenu the trade menu to close
+     * @param UUID the UUID of the player closing it
+     */
+    public void closeMenu(TradeMenu tradeMenu, UUID UUID) {
+        menuListener.inventoryClose(new InventoryCloseEvent(newView(UUID, tradeMenu)));
+    }
+
+    /**
+     * Hands the transactions submitted so far to the economy worker, as the end of a tick does
+     */
+    public void flushEconomy() {
+        economyPipeline.run();
+    }
+
+    /**
+     * Waits for tasks to be scheduled and runs them in the order they were scheduled, as the next tick does
+     * @param count the number of tasks to run
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void runTasks(int count) throws InterruptedException {
+        for(int i = 0; i < count; i++) {
+            Runnable task = tasks.poll(TASK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            if(task == null) {
+                throw new IllegalStateException("Timed out waiting for task " + (i + 1) + " of " + count);
+            }
+
+            task.run();
+        }
+    }
+
+    /**
+     * Settles everything still waiting in the economy pipeline and stops it
+     */
+    public void stop() {
+        economyPipeline.stop();
+    }
+
+    private InventoryView newView(UUID UUID, InventoryHolder holder) {
+        // Proxies rather than mocks, so nothing recorded by a mock keeps the trade menu reachable after the event
+        final HumanEntity player = (HumanEntity) newProxy(HumanEntity.class, "getUniqueId", UUID);
+        final Inventory topInventory = (Inventory) newProxy(Inventory.class, "getHolder", holder, "getSize", layout.getSize());
+
+        return new InventoryView() {
+            @Override
+            public Inventory getTopInventory() {
+                return topInventory;
+            }
+
+            @Override
+            public Inventory getBottomInventory() {
+                return null;
+            }
+
+            @Override
+            public HumanEntity getPlayer() {
+                return player;
+            }
+
+            @Override
+            public InventoryType getType() {
+                return InventoryType.CHEST;
+            }
+        };
+    }
+
+    private static Object newProxy(Class<?> type, final Object... results) {
+        return Proxy.newProxyInstance(PluginFixture.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                for(int i = 0; i < results.length; i += 2) {
+                    if(results[i].equals(method.getName())) {return results[i + 1];}
+                }
+
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    private static synchronized Server getServer() {
+        if(server != null) {return server;}
+
+        server = mock(Server.class);
+        when(server.getLogger()).thenReturn(Logger.getLogger("EnhancedTradeTest"));
+        when(server.getOfflinePlayer(any(UUID.class))).thenAnswer(new Answer<OfflinePlayer>() {
+            @Override
+            public OfflinePlayer answer(InvocationOnMock invocation) {
+                return newOfflinePlayer((UUID) invocation.getArguments()[0]);
+            }
+        });
+
+        Bukkit.setServer(server);
+        return server;
+    }
+
+    private static BukkitScheduler newScheduler(final BlockingQueue<Runnable> tasks) {
+        final BukkitTask bukkitTask = mock(BukkitTask.class);
+        BukkitScheduler scheduler = mock(BukkitScheduler.class);
+
+        Answer<BukkitTask> queueTask = new Answer<BukkitTask>() {
+            @Override
+            public BukkitTask answer(InvocationOnMock invocation) {
+                tasks.add((Runnable) invocation.getArguments()[1]);
+                return bukkitTask;
+            }
+        };
+
+        when(scheduler.runTask(any(Plugin.class), any(Runnable.class))).thenAnswer(queueTask);
+        when(scheduler.runTaskLater(any(Plugin.class), any(Runnable.class), anyLong())).thenAnswer(queueTask);
+
+        // Repeating tasks are ticked by hand in tests
+        when(scheduler.runTaskTimer(any(Plugin.class), any(Runnable.class), anyLong(), anyLong())).thenReturn(bukkitTask);
+
+        return scheduler;
+    }
+
+    private static OfflinePlayer newOfflinePlayer(final UUID UUID) {
+        return (OfflinePlayer) Proxy.newProxyInstance(PluginFixture.class.getClassLoader(), new Class<?>[] {OfflinePlayer.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getUniqueId":
+                        return UUID;
+                    case "getName":
+                    case "toString":
+                        return UUID.toString();
+                    case "isOnline":
+                        return false;
+                    case "hashCode":
+                        return UUID.hashCode();
+                    case "equals":
+                        return args[0] instanceof OfflinePlayer && UUID.equals(((OfflinePlayer) args[0]).getUniqueId());
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    private static void setPluginState(EnhancedTrade plugin) {
+        // The server, logger and enabled flag sit behind final methods of JavaPlugin, so they are set the way the plugin loader would
+        setField(plugin, "server", getServer());
+        setField(plugin, "description", new PluginDescriptionFile("EnhancedTrade", "1.0", EnhancedTrade.class.getName()));
+        setField(plugin, "logger", new PluginLogger(plugin));
+        setField(plugin, "isEnabled", true);
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        try {
+            Field field = JavaPlugin.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Could not set " + name + " on the plugin", ex);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.economy;
+
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.OfflinePlayer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An economy kept in memory for tests, balances are by player UUID and withdrawals fail when a balance is too low.
+ * Only the player based calls the trade money is settled through are supported.
+ */
+public class MemoryEconomy implements InvocationHandler {
+    private Map<UUID, Double> balances = null;
+    private Set<UUID> refusingDeposits = null;
+    private Economy economy = null;
+
+    /**
+     * Creates an instance of the memory economy with every balance at 0
+     */
+    public MemoryEconomy() {
+        balances = new HashMap<UUID, Double>();
+        refusingDeposits = new HashSet<UUID>();
+        economy = (Economy) Proxy.newProxyInstance(MemoryEconomy.class.getClassLoader(), new Class<?>[] {Economy.class}, this);
+    }
+
+    /**
+     * Returns the economy backed by the balances
+     * @return the economy backed by the balances
+     */
+    public Economy getEconomy() {
+        return economy;
+    }
+
+    /**
+     * Returns the balance of a player
+     * @param UUID the UUID of the player
+     * @return the balance of the player
+     */
+    public synchronized double getBalance(UUID UUID) {
+        Double balance = balances.get(UUID);
+
+        return balance == null ? 0 : balance;
+    }
+
+    /**
+     * Sets the balance of a player
+     * @param UUID the UUID of the player
+     * @param balance the balance to set
+     */
+    public synchronized void setBalance(UUID UUID, double balance) {
+        balances.put(UUID, balance);
+    }
+
+    /**
+     * Sets if deposits to a player fail, as they do when their account is locked or capped
+     * @param UUID the UUID of the player
+     * @param refusing if deposits to the player fail
+     */
+    public synchronized void setRefusingDeposits(UUID UUID, boolean refusing) {
+        if(refusing) {
+            refusingDeposits.add(UUID);
+        } else {
+            refusingDeposits.remove(UUID);
+        }
+    }
+
+    private synchronized EconomyResponse withdraw(OfflinePlayer player, double amount) {
+        double balance = getBalance(player.getUniqueId());
+
+        if(amount < 0 || balance < amount) {
+            return new EconomyResponse(0, balance, EconomyResponse.ResponseType.FAILURE, "Insufficient funds");
+        }
+
+        setBalance(player.getUniqueId(), balance - amount);
+        return new EconomyResponse(amount, balance - amount, EconomyResponse.ResponseType.SUCCESS, null);
+    }
+
+    private synchronized EconomyResponse deposit(OfflinePlayer player, double amount) {
+        double balance = getBalance(player.getUniqueId());
+
+        if(amount < 0 || refusingDeposits.contains(player.getUniqueId())) {
+            return new EconomyResponse(0, balance, EconomyResponse.ResponseType.FAILURE, "Deposit refused");
+        }
+
+        setBalance(player.getUniqueId(), balance + amount);
+        return new EconomyResponse(amount, balance + amount, EconomyResponse.ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+
+        if(args != null && args.length > 0 && args[0] instanceof OfflinePlayer) {
+            OfflinePlayer player = (OfflinePlayer) args[0];
+
+            switch (name) {
+                case "withdrawPlayer":
+                    return withdraw(player, (Double) args[args.length - 1]);
+                case "depositPlayer":
+                    return deposit(player, (Double) args[args.length - 1]);
+                case "getBalance":
+                    return getBalance(player.getUniqueId());
+                case "has":
+                    return getBalance(player.getUniqueId()) >= (Double) args[args.length - 1];
+                case "hasAccount":
+                    return true;
+                default:
+                    break;
+            }
+        }
+
+        switch (name) {
+            case "isEnabled":
+                return true;
+            case "getName":
+                return "Memory";
+            case "format":
+                return String.format("$%,.2f", (Double) args[0]);
+            case "fractionalDigits":
+                return 2;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "MemoryEconomy";
+            default:
+                throw new UnsupportedOperationException(name + " is not supported by the memory economy");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.menu;
+
+import com.serkprojects.enhancedtrade.PluginFixture;
+import com.serkprojects.enhancedtrade.economy.MemoryEconomy;
+import com.serkprojects.enhancedtrade.text.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.verify;
+
+public class TradeSettlementTest {
+    private static final UUID TRADER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID TRADEE = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    private PluginFixture fixture = null;
+    private MemoryEconomy economy = null;
+
+    @Before
+    public void setUp() {
+        fixture = new PluginFixture();
+        economy = fixture.getMemoryEconomy();
+        economy.setBalance(TRADEE, 100);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void completedTradeWaitsForItsHoldsBeforePaying() throws InterruptedException {
+        economy.setBalance(TRADER, 20);
+        TradeMenu tradeMenu = fixture.newTrade(TRADER, TRADEE);
+
+        fixture.click(tradeMenu, TRADER, SlotRole.ADD_TEN_CURRENCY);
+        readyBoth(tradeMenu);
+
+        // The countdown runs out before the withdrawal has been applied
+        tradeMenu.completeTrade();
+        assertEquals(TradeState.SETTLING, tradeMenu.getState());
+
+        fixture.flushEconomy();
+        fixture.runTasks(1);
+
+        assertEquals(TradeState.DONE, tradeMenu.getState());
+        assertNull(fixture.getTradeRegistry().getTrade(TRADER));
+
+        fixture.stop();
+        assertEquals(10, economy.getBalance(TRADER), 0);
+        assertEquals(110, economy.getBalance(TRADEE), 0);
+    }
+
+    @Test
+    public void failedHoldAbortsTradeAcceptedBeforeItFailed() throws InterruptedException {
+        economy.setBalance(TRADER, 5);
+        TradeMenu tradeMenu = fixture.newTrade(TRADER, TRADEE);
+
+        // The first withdrawal goes through, the second is more than the trader has left
+        fixture.click(tradeMenu, TRADER, SlotRole.ADD_ONE_CURRENCY);
+        fixture.click(tradeMenu, TRADER, SlotRole.ADD_TEN_CURRENCY);
+        readyBoth(tradeMenu);
+
+        tradeMenu.completeTrade();
+        assertEquals(TradeState.SETTLING, tradeMenu.getState());
+
+        fixture.flushEconomy();
+        fixture.runTasks(2);
+
+        assertEquals(TradeState.CANCELLED, tradeMenu.getState());
+        assertNull(fixture.getTradeRegistry().getTrade(TRADEE));
+
+        // The withdrawal that did go through is returned and the tradee is not paid
+        fixture.stop();
+        assertEquals(5, economy.getBalance(TRADER), 0);
+        assertEquals(100, economy.getBalance(TRADEE), 0);
+    }
+
+    @Test
+    public void tradeCancelledWhileSettlingReturnsItsHolds() throws InterruptedException {
+        economy.setBalance(TRADER, 20);
+        TradeMenu tradeMenu = fixture.newTrade(TRADER, TRADEE);
+
+        fixture.click(tradeMenu, TRADER, SlotRole.ADD_TEN_CURRENCY);
+        readyBoth(tradeMenu);
+
+        tradeMenu.completeTrade();
+        tradeMenu.cancelTrade();
+        assertEquals(TradeState.CANCELLED, tradeMenu.getState());
+
+        // The hold settling afterwards must not complete the trade
+        fixture.flushEconomy();
+        fixture.runTasks(1);
+        assertEquals(TradeState.CANCELLED, tradeMenu.getState());
+
+        fixture.stop();
+        assertEquals(20, economy.getBalance(TRADER), 0);
+        assertEquals(100, economy.getBalance(TRADEE), 0);
+    }
+
+    @Test
+    public void failedPayoutIsNotPaidTwiceAndTellsTheRecipient() throws InterruptedException {
+        economy.setBalance(TRADER, 20);
+        economy.setRefusingDeposits(TRADEE, true);
+        TradeMenu tradeMenu = fixture.newTrade(TRADER, TRADEE);
+
+        fixture.click(tradeMenu, TRADER, SlotRole.ADD_TEN_CURRENCY);
+        readyBoth(tradeMenu);
+
+        tradeMenu.completeTrade();
+        fixture.flushEconomy();
+        fixture.runTasks(1);
+        assertEquals(TradeState.DONE, tradeMenu.getState());
+
+        // The payout fails and its failure callback runs on the next tick
+        fixture.flushEconomy();
+        fixture.runTasks(1);
+        verify(fixture.getMessageCatalogue()).send(null, Message.TRADE_PAYOUT_FAILED);
+
+        fixture.stop();
+        assertEquals(10, economy.getBalance(TRADER), 0);
+        assertEquals(100, economy.getBalance(TRADEE), 0);
+    }
+
+    @Test
+    public void settlingTradeIgnoresClicks() {
+        economy.setBalance(TRADER, 20);
+        TradeMenu tradeMenu = fixture.newTrade(TRADER, TRADEE);
+
+        fixture.click(tradeMenu, TRADER, SlotRole.ADD_TEN_CURRENCY);
+        readyBoth(tradeMenu);
+        tradeMenu.completeTrade();
+
+        fixture.click(tradeMenu, TRADER, SlotRole.REMOVE_TEN_CURRENCY);
+        fixture.click(tradeMenu, TRADEE, SlotRole.CANCEL_TRADE);
+
+        assertEquals(TradeState.SETTLING, tradeMenu.getState());
+    }
+
+    private void readyBoth(TradeMenu tradeMenu) {
+        fixture.click(tradeMenu, TRADER, SlotRole.TRADER_READINESS);
+        fixture.click(tradeMenu, TRADEE, SlotRole.TRADEE_READINESS);
+        assertEquals(TradeState.COUNTDOWN, tradeMenu.getState());
+    }
+}
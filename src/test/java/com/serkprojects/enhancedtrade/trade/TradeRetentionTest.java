@@ -0,0 +1,136 @@
+/**
+ * ********************************************************************************************************************
+ * EnhancedTrade - Provides an enhanced trade system
+ * ====================================================================================================================
+ * Copyright (C) 2015 by SonarBeserk, SerkProjects
+ * https://gitlab.com/serkprojects/enhancedtrade
+ * *********************************************************************************************************************
+ * *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * *
+ * *********************************************************************************************************************
+ * Please refer to LICENSE for the full license. If it is not there, see <http://www.gnu.org/licenses/>.
+ * *********************************************************************************************************************
+ */
+
+package com.serkprojects.enhancedtrade.trade;
+
+import com.serkprojects.enhancedtrade.PluginFixture;
+import com.serkprojects.enhancedtrade.menu.SlotRole;
+import com.serkprojects.enhancedtrade.menu.TradeMenu;
+import com.serkprojects.enhancedtrade.menu.TradeState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TradeRetentionTest {
+    private static final UUID TRADER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID TRADEE = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    private static final long COLLECT_TIMEOUT_MILLIS = 5000;
+
+    private PluginFixture fixture = null;
+
+    @Before
+    public void setUp() {
+        fixture = new PluginFixture();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void completedTradeIsNotRetained() throws InterruptedException {
+        TradeMenu tradeMenu = openCountingDownTrade();
+
+        tradeMenu.completeTrade();
+        assertEquals(TradeState.DONE, tradeMenu.getState());
+
+        assertReleased(tradeMenu);
+
+        WeakReference<TradeMenu> reference = new WeakReference<TradeMenu>(tradeMenu);
+        tradeMenu = null;
+        assertCollected(reference);
+    }
+
+    @Test
+    public void cancelledTradeIsNotRetained() throws InterruptedException {
+        TradeMenu tradeMenu = openCountingDownTrade();
+
+        tradeMenu.cancelTrade();
+        assertEquals(TradeState.CANCELLED, tradeMenu.getState());
+
+        assertReleased(tradeMenu);
+
+        WeakReference<TradeMenu> reference = new WeakReference<TradeMenu>(tradeMenu);
+        tradeMenu = null;
+        assertCollected(reference);
+    }
+
+    private TradeMenu openCountingDownTrade() {
+        TradeMenu tradeMenu = fixture.newTrade(TRADER, TRADEE);
+        fixture.openMenu(tradeMenu, TRADER);
+        fixture.openMenu(tradeMenu, TRADEE);
+
+        fixture.click(tradeMenu, TRADER, SlotRole.TRADER_READINESS);
+        fixture.click(tradeMenu, TRADEE, SlotRole.TRADEE_READINESS);
+
+        // Every structure that indexes a live trade holds this one before it settles
+        assertSame(tradeMenu, fixture.getTradeRegistry().getTrade(TRADER));
+        assertSame(tradeMenu, fixture.getViewerRegistry().getViewing(TRADEE));
+        assertTrue(fixture.getTradeScheduler().isCountingDown(tradeMenu));
+
+        return tradeMenu;
+    }
+
+    private void assertReleased(TradeMenu tradeMenu) {
+        // Settling closes the menu for its viewers, which reaches the registry through the close event
+        fixture.closeMenu(tradeMenu, TRADER);
+        fixture.closeMenu(tradeMenu, TRADEE);
+
+        assertNull(fixture.getTradeRegistry().getTrade(TRADER));
+        assertNull(fixture.getTradeRegistry().getTrade(TRADEE));
+        assertFalse(fixture.getTradeRegistry().getTrades().contains(tradeMenu));
+        assertEquals(0, fixture.getTradeRegistry().size());
+
+        assertNull(fixture.getViewerRegistry().getViewing(TRADER));
+        assertNull(fixture.getViewerRegistry().getViewing(TRADEE));
+        assertTrue(fixture.getViewerRegistry().getViewers(tradeMenu).isEmpty());
+        assertEquals(0, fixture.getViewerRegistry().size());
+
+        assertFalse(fixture.getTradeScheduler().isCountingDown(tradeMenu));
+        assertEquals(0, tradeMenu.getCountdownCounter());
+        assertNull(tradeMenu.getInventory());
+    }
+
+    private static void assertCollected(WeakReference<TradeMenu> reference) throws InterruptedException {
+        // With nothing left holding the trade a collection clears the reference, a few attempts allow for a lazy collector
+        long deadline = System.currentTimeMillis() + COLLECT_TIMEOUT_MILLIS;
+
+        while(reference.get() != null && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull("The settled trade is still reachable", reference.get());
+    }
+}